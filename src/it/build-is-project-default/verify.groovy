@@ -0,0 +1,13 @@
+String log = new File( basedir, "build.log" ).text
+
+if ( System.getProperty( "os.name" ).toLowerCase().startsWith( "windows" ) )
+{
+    // there is no build-is-project-default.ism, which fails the build by default
+    assert log.contains( "InstallShield project file not found" )
+}
+else
+{
+    assert log.contains( "This plugin is for Windows systems only" )
+}
+
+return true
@@ -0,0 +1,17 @@
+import java.nio.file.Files
+
+File dependency = new File( basedir, "target/dependency/commons-io-2.4.jar" )
+assert dependency.isFile()
+// dependencies are copied by default, never linked to the local repository
+assert !Files.isSymbolicLink( dependency.toPath() )
+File repositoryFile = new File( localRepositoryPath, "commons-io/commons-io/2.4/commons-io-2.4.jar" )
+if ( repositoryFile.isFile() )
+{
+    assert !Files.isSameFile( dependency.toPath(), repositoryFile.toPath() )
+}
+
+File staticFile = new File( basedir, "target/static/docs/readme.txt" )
+assert staticFile.isFile()
+assert staticFile.text == new File( basedir, "src/static/docs/readme.txt" ).text
+
+return true
@@ -0,0 +1,23 @@
+import java.util.zip.ZipFile
+
+File prz = new File( basedir, "target/prq-package-default.prz" )
+assert prz.isFile()
+
+ZipFile archive = new ZipFile( prz )
+try
+{
+    Set names = archive.entries().collect { it.name } as Set
+    [ "prq-package-default.prq",
+      "prq-package-default/DiskImages/DISK1/setup.exe",
+      "prq-package-default/static/tool.txt",
+      "prq-package-default/dependency/commons-io-2.4.jar" ].each { assert names.contains( it ) }
+    // the prerequisite in the archive references the packaged files
+    String prq = archive.getInputStream( archive.getEntry( "prq-package-default.prq" ) ).text
+    assert !prq.contains( 'LocalFile="target/' )
+}
+finally
+{
+    archive.close()
+}
+
+return true
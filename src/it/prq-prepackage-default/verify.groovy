@@ -0,0 +1,24 @@
+import java.security.MessageDigest
+
+File prePackage = new File( basedir, "target/prq-prepackage-default" )
+File installer = new File( prePackage, "prq-prepackage-default" )
+
+assert new File( installer, "DiskImages/DISK1/setup.exe" ).isFile()
+File tool = new File( installer, "static/tool.txt" )
+assert tool.isFile()
+File dependency = new File( installer, "dependency/commons-io-2.4.jar" )
+assert dependency.isFile()
+
+File prq = new File( prePackage, "prq-prepackage-default.prq" )
+assert prq.isFile()
+String rewritten = prq.text
+[ tool, dependency ].each { staged ->
+    String md5 = MessageDigest.getInstance( "MD5" ).digest( staged.bytes ).encodeHex().toString()
+    assert rewritten.toLowerCase().contains( md5 )
+}
+// everything but the file entries is kept as it is
+assert rewritten.contains( 'Description="Prerequisite of an IT"' )
+assert rewritten.contains( '<execute file="setup.exe" cmdline="/s"></execute>' )
+assert !rewritten.contains( 'LocalFile="target/' )
+
+return true
@@ -1,3 +0,0 @@
-File touchFile = new File( basedir, "target/touch.txt" );
-
-assert touchFile.isFile()
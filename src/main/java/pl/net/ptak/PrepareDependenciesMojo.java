@@ -30,13 +30,20 @@ import static org.twdata.maven.mojoexecutor.MojoExecutor.version;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
@@ -48,11 +55,23 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
-import org.codehaus.plexus.archiver.zip.ZipUnArchiver;
 import org.codehaus.plexus.components.io.fileselectors.FileSelector;
+import org.codehaus.plexus.components.io.fileselectors.IncludeExcludeFileSelector;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
 
+import pl.net.ptak.helpers.ArtifactIndex;
+import pl.net.ptak.helpers.DirectorySynchronizer;
+import pl.net.ptak.helpers.EntryManifest;
+import pl.net.ptak.helpers.ExtractionCache;
+import pl.net.ptak.helpers.ExtractionMarker;
 import pl.net.ptak.helpers.LoggerImplementation;
+import pl.net.ptak.helpers.MappedZipUnArchiver;
+import pl.net.ptak.helpers.PrerequisiteFiles;
+import pl.net.ptak.helpers.PrqProcessor;
+import pl.net.ptak.helpers.PrzExtractor;
+import pl.net.ptak.helpers.PrzUnArchiver;
+import pl.net.ptak.helpers.ReferencedFiles;
+import pl.net.ptak.helpers.StagingMode;
 import pl.net.ptak.helpers.Unzip;
 
 /**
@@ -66,6 +85,12 @@ public class PrepareDependenciesMojo
     extends AbstractMojo
 {
 
+    /** Number of bytes in a megabyte. */
+    private static final long MEGABYTE = 1024 * 1024;
+
+    /** Extension of prerequisite archives, which are extracted flat into dependencyFolder. */
+    private static final String PRZ_EXTENSION = "prz";
+
     @Parameter( defaultValue = "${project}", readonly = true, required = true )
     private MavenProject project;
 
@@ -98,6 +123,13 @@ public class PrepareDependenciesMojo
                     readonly = true, required = true )
     private File staticFilesTargetFolder;
 
+    /**
+     * Number of threads copying static files to staticFilesTargetFolder. Both folders are compared in one pass and
+     * only new or changed files are copied, files removed from staticFilesFolder are removed from the target too.
+     */
+    @Parameter( property = "staticFilesThreads", defaultValue = "1", required = true )
+    private int staticFilesThreads;
+
     /**
      * List of artifacts to unzip. <br>
      * Each unzip entry should look like this<br>
@@ -140,9 +172,144 @@ public class PrepareDependenciesMojo
     @Parameter( property = "unzips" )
     private List<Unzip> unzips;
 
+    /**
+     * Number of threads extracting prz files. The entries of all prz files are extracted concurrently.
+     */
+    @Parameter( property = "extractionThreads", defaultValue = "1", required = true )
+    private int extractionThreads;
+
+    /**
+     * Map archives into memory and extract them from the mapping instead of reading them as streams. Saves copying
+     * stored entries through the heap, which pays off for big archives on 64 bit JVMs.
+     */
+    @Parameter( property = "mappedExtraction", defaultValue = "false", required = true )
+    private boolean mappedExtraction;
+
+    /**
+     * Extract archives into a cache shared by modules and builds and place their content in dependencyFolder from
+     * there, by hard links when the cache is on the same file system. An archive is extracted once per content and
+     * selection of files. Files placed from the cache must not be modified in place.
+     */
+    @Parameter( property = "useExtractionCache", defaultValue = "false", required = true )
+    private boolean useExtractionCache;
+
+    /**
+     * The folder of the shared extraction cache.
+     */
+    @Parameter( property = "extractionCacheFolder",
+                    defaultValue = "${settings.localRepository}/.cache/installshield-maven-plugin/extracted",
+                    required = true )
+    private File extractionCacheFolder;
+
+    /**
+     * Maximum size of the shared extraction cache in megabytes. Least recently used extractions are removed when the
+     * cache grows bigger.
+     */
+    @Parameter( property = "extractionCacheSize", defaultValue = "10240", required = true )
+    private long extractionCacheSize;
+
+    /**
+     * Extract only the files referenced by the prerequisites (LocalFile attributes of its file entries) and by the
+     * InstallShield project (File table of a project saved as XML), everything else stays packed. The selection
+     * applies to prz files and to unzips; files referenced through path variables of the project which are not given
+     * in pathVariables are not found, so they have to be referenced by the prerequisite as well. Everything is
+     * extracted, with a warning, when a prerequisite or the project can't be found or read.
+     */
+    @Parameter( property = "lazyExtraction", defaultValue = "false", required = true )
+    private boolean lazyExtraction;
+
+    /**
+     * The prerequisite whose file references select what is extracted when lazyExtraction is set.
+     */
+    @Parameter( defaultValue = "${project.artifactId}.prq", property = "prqFile", required = true )
+    private File prerequisite;
+
+    /**
+     * Prerequisites whose file references select what is extracted, used instead of prqFile: file names or patterns
+     * relative to basedir, as given to prq-prepackage.
+     */
+    @Parameter( property = "prqFiles" )
+    private String[] prerequisiteFiles;
+
+    /**
+     * The InstallShield project whose file references select what is extracted when lazyExtraction is set.
+     */
+    @Parameter( property = "installshieldProjectFile", defaultValue = "${project.artifactId}.ism" )
+    private File installshieldProjectFile;
+
+    /**
+     * Path variables used to resolve file references of the InstallShield project, as passed to the build.
+     */
+    @Parameter( property = "pathVariables" )
+    private TreeMap<String, String> pathVariables;
+
+    @Parameter( defaultValue = "${basedir}", readonly = true, required = true )
+    private File basedir;
+
+    /**
+     * Leave prz files packed instead of extracting them into dependencyFolder. Their files are listed in
+     * dependencyEntriesFile, which prq-prepackage uses to digest files referenced by the prerequisite straight from
+     * the archives, and prq-package with directPackaging copies them into the new archive still compressed. Files of
+     * passed through prz files are not on disk, so the InstallShield project must not reference them.
+     */
+    @Parameter( property = "passThroughPrz", defaultValue = "false", required = true )
+    private boolean passThroughPrz;
+
+    /**
+     * Where the files of prz files left packed are listed when passThroughPrz is set.
+     */
+    @Parameter( defaultValue = "${project.build.directory}/dependency-entries.properties",
+                    property = "dependencyEntriesFile", required = true )
+    private File dependencyEntriesFile;
+
+    /**
+     * Resolve dependencies within this plugin instead of running maven-dependency-plugin copy-dependencies. Archives
+     * (prz files and artifacts selected by unzips) are then extracted straight from the local repository and only the
+     * remaining dependencies are placed in dependencyFolder, according to dependencyStagingMode.
+     */
+    @Parameter( property = "resolveInProcess", defaultValue = "false", required = true )
+    private boolean resolveInProcess;
+
+    /**
+     * How dependencies which are not extracted are placed in dependencyFolder when resolveInProcess is set:
+     * <ul>
+     * <li>copy - files are copied</li>
+     * <li>hardlink - files are hard linked when the local repository is on the same file system as dependencyFolder
+     * and copied otherwise</li>
+     * <li>symlink-then-resolve - symbolic links to files in the local repository are created</li>
+     * </ul>
+     * Linking is an opt-in: files in dependencyFolder then share their content with the local repository. This plugin
+     * removes a file before writing it, but any other tool modifying dependencyFolder in place would modify the local
+     * repository as well.
+     */
+    @Parameter( property = "dependencyStagingMode", defaultValue = "copy", required = true )
+    private String dependencyStagingMode;
+
+    /**
+     * The folder holding a marker for every extracted artifact. An artifact whose marker matches (same file, target
+     * folder and selectors) is not extracted again.
+     */
+    @Parameter( defaultValue = "${project.build.directory}/dependency-markers", property = "extractionMarkersFolder",
+                    required = true )
+    private File extractionMarkersFolder;
+
+    /**
+     * Extract all artifacts, even those whose extraction markers match.
+     */
+    @Parameter( property = "forceExtraction", defaultValue = "false", required = true )
+    private boolean forceExtraction;
+
     @Component( role = BuildPluginManager.class )
     private BuildPluginManager pluginManager;
 
+    @Component( role = PrqProcessor.class )
+    private PrqProcessor prqProcessor;
+
+    /**
+     * Files to extract when lazyExtraction is set, null to extract everything.
+     */
+    private ReferencedFiles referencedFiles = null;
+
     /**
      * Based on dependencies entered, selects what to copy and what to copy and unpack.
      * 
@@ -153,122 +320,493 @@ public class PrepareDependenciesMojo
     public void execute()
         throws MojoExecutionException, MojoFailureException
     {
-        executeMojoWithLogs( "org.apache.maven.plugins", "maven-dependency-plugin", "2.8", "copy-dependencies",
-            configuration() );
+        if ( lazyExtraction )
+        {
+            referencedFiles = collectReferencedFiles();
+        }
+        // MavenProject returns a raw set of artifacts
+        @SuppressWarnings( "unchecked" )
+        Set<Artifact> artifacts = project.getArtifacts();
+        ArtifactIndex artifactIndex = new ArtifactIndex( artifacts );
+        Collection<File> dependencyFiles;
+        if ( resolveInProcess )
+        {
+            dependencyFiles = resolveDependencies( artifacts, selectedForUnzip( artifactIndex ) );
+        }
+        else
+        {
+            executeMojoWithLogs( "org.apache.maven.plugins", "maven-dependency-plugin", "2.8", "copy-dependencies",
+                configuration() );
+            dependencyFiles =
+                dependencyFolder.exists() ? FileUtils.listFiles( dependencyFolder, null, false )
+                                : Collections.<File> emptyList();
+        }
 
-        unzipDependenciesIfNeeded();
+        // a manifest of a previous build must never hide files extracted by this one
+        FileUtils.deleteQuietly( dependencyEntriesFile );
+        unzipDependenciesIfNeeded( dependencyFiles, artifactIndex );
         copyStaticFiles();
     }
 
-    private void unzipDependenciesIfNeeded()
+    /**
+     * Places dependencies in dependencyFolder, except for archives which are extracted from where they are.
+     * 
+     * @param artifacts all dependencies
+     * @param unzipArtifacts dependencies selected by unzips
+     * @return files of all dependencies, in the local repository for archives and in dependencyFolder for the rest
+     * @throws MojoExecutionException when dependencyStagingMode is not valid
+     * @throws MojoFailureException when a dependency can't be placed in dependencyFolder
+     */
+    private Collection<File> resolveDependencies( Set<Artifact> artifacts, Set<Artifact> unzipArtifacts )
+        throws MojoExecutionException, MojoFailureException
+    {
+        DirectorySynchronizer dependencyStager;
+        try
+        {
+            dependencyStager = new DirectorySynchronizer( StagingMode.fromString( dependencyStagingMode ) );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw new MojoExecutionException( e.getMessage(), e );
+        }
+
+        getLog().info( String.format( "Resolving dependencies to %s", dependencyFolder ) );
+        dependencyFolder.mkdirs();
+        List<File> dependencyFiles = new ArrayList<File>();
+        for ( Artifact artifact : artifacts )
+        {
+            File source = artifact.getFile();
+            if ( source == null || !source.isFile() )
+            {
+                getLog().warn( String.format( "%s is not resolved to a file, skipping it", artifact ) );
+                continue;
+            }
+            if ( unzipArtifacts.contains( artifact )
+                || FilenameUtils.isExtension( source.getName(), PRZ_EXTENSION ) )
+            {
+                dependencyFiles.add( source );
+                continue;
+            }
+
+            File target = new File( dependencyFolder, source.getName() );
+            try
+            {
+                if ( !DirectorySynchronizer.isUpToDate( source, target ) )
+                {
+                    dependencyStager.stage( source, target );
+                }
+            }
+            catch ( IOException e )
+            {
+                String message = String.format( "Failed to place %s in %s", source, dependencyFolder );
+                String shortMessage = "Failed to resolve dependencies";
+                getLog().debug( message, e );
+                throw new MojoFailureException( e, shortMessage, message );
+            }
+            dependencyFiles.add( target );
+        }
+        getLog().info( String.format( "Dependencies resolved: %s", dependencyStager ) );
+        return dependencyFiles;
+    }
+
+    /**
+     * Collects the files referenced by the prerequisites and the InstallShield project. Extracting only some of them
+     * would leave the build without files it needs, so everything is extracted when any of these can't be found or
+     * read.
+     * 
+     * @return the referenced files or null to extract everything
+     */
+    private ReferencedFiles collectReferencedFiles()
+    {
+        ReferencedFiles referenced = new ReferencedFiles( prqProcessor );
+        List<File> prerequisites = PrerequisiteFiles.resolve( basedir, prerequisite, prerequisiteFiles );
+        if ( prerequisites.isEmpty() )
+        {
+            return extractEverything( "no prerequisite was found" );
+        }
+        for ( File prq : prerequisites )
+        {
+            if ( !prq.isFile() )
+            {
+                return extractEverything( String.format( "%s was not found", prq ) );
+            }
+            try
+            {
+                int found = referenced.addFromPrerequisite( prq, basedir );
+                getLog().info( String.format( "%d files referenced by %s", found, prq.getName() ) );
+            }
+            catch ( IOException e )
+            {
+                getLog().debug( e );
+                return extractEverything( String.format( "failed to read file references of %s: %s", prq,
+                    e.getMessage() ) );
+            }
+        }
+        if ( installshieldProjectFile == null )
+        {
+            return referenced;
+        }
+        if ( !installshieldProjectFile.isFile() )
+        {
+            return extractEverything( String.format( "%s was not found", installshieldProjectFile ) );
+        }
+        try
+        {
+            int found = referenced.addFromInstallShieldProject( installshieldProjectFile, pathVariables );
+            getLog().info( String.format( "%d files referenced by %s", found, installshieldProjectFile.getName() ) );
+        }
+        catch ( IOException e )
+        {
+            getLog().debug( e );
+            return extractEverything( String.format( "failed to read file references of %s: %s",
+                installshieldProjectFile, e.getMessage() ) );
+        }
+        return referenced;
+    }
+
+    private ReferencedFiles extractEverything( String reason )
+    {
+        getLog().warn( String.format( "Lazy extraction is disabled, %s, so everything is extracted", reason ) );
+        return null;
+    }
+
+    private Set<Artifact> selectedForUnzip( ArtifactIndex artifactIndex )
+    {
+        Set<Artifact> selected = new HashSet<Artifact>();
+        if ( unzips != null )
+        {
+            for ( Unzip unzipSelection : unzips )
+            {
+                selected.addAll( artifactIndex.findByPrefix( unzipSelection.getWhat() ) );
+            }
+        }
+        return selected;
+    }
+
+    private void unzipDependenciesIfNeeded( Collection<File> dependencyFiles, ArtifactIndex artifactIndex )
         throws MojoFailureException
     {
-        if ( dependencyFolder.exists() )
+        if ( !dependencyFiles.isEmpty() )
         {
-            ZipUnArchiver unpacker = new ZipUnArchiver();
+            PrzUnArchiver unpacker = mappedExtraction ? new MappedZipUnArchiver() : new PrzUnArchiver();
             unpacker.enableLogging( new LoggerImplementation( getLog() ) );
 
             getLog().info( "Unpacking prz files" );
-            String[] flatUnpackExtensions = { "prz", };
-            Collection<File> flatUnpackFiles = FileUtils.listFiles( dependencyFolder, flatUnpackExtensions, false );
+            Collection<File> flatUnpackFiles = new TreeSet<File>();
+            for ( File dependencyFile : dependencyFiles )
+            {
+                if ( FilenameUtils.isExtension( dependencyFile.getName(), PRZ_EXTENSION ) )
+                {
+                    flatUnpackFiles.add( dependencyFile );
+                }
+            }
 
-            unpacker.setDestDirectory( dependencyFolder );
-            for ( File flatUnpackFile : flatUnpackFiles )
+            if ( passThroughPrz )
             {
-                getLog().info( String.format( "Unpacking %s", flatUnpackFile.getName() ) );
-                unpacker.setSourceFile( flatUnpackFile );
-                unpacker.extract();
+                writeEntryManifest( flatUnpackFiles );
+            }
+            else
+            {
+                unpackPrzFiles( flatUnpackFiles );
             }
 
             if ( !( null == unzips || unzips.isEmpty() ) )
             {
                 getLog().info( "Unpack zip-compressed files" );
-                Set<Artifact> artifacts = project.getArtifacts();
-                Map<String, Unzip> unzipsForFiles = new HashMap<String, Unzip>();
-
-                for ( Artifact artifact : artifacts )
+                for ( Unzip unzipSelection : unzips )
                 {
-                    for ( Unzip unzipSelection : unzips )
+                    for ( Artifact artifact : artifactIndex.findByPrefix( unzipSelection.getWhat() ) )
                     {
-                        if ( artifact.toString().startsWith( unzipSelection.getWhat() ) )
-                        {
-                            if ( unzipSelection.getWhere() == null )
-                            {
-                                unzipSelection.setWhere(  String.format(
-                                    "%s_%s",
-                                    artifact.getArtifactId(),
-                                    artifact.getType() ) );
-                        }
-                            unzipsForFiles.put( artifact.getFile().getName(),
-                                unzipSelection );
-                        }
+                        unzipArtifact( unpacker, artifact, unzipSelection );
                     }
                 }
-                if ( !unzipsForFiles.isEmpty() )
+            }
+            else
+            {
+                getLog().info( "Nothing to unzip" );
+            }
+        }
+        else
+        {
+            getLog().info( "No dependencies to extract" );
+        }
+    }
+
+    /**
+     * Extracts an artifact selected by an unzip entry. An artifact may be selected by more than one entry, each
+     * extracts it to its own folder.
+     */
+    private void unzipArtifact( final PrzUnArchiver unpacker, Artifact artifact, Unzip unzipSelection )
+        throws MojoFailureException
+    {
+        File unpackFile =
+            resolveInProcess ? artifact.getFile() : new File( dependencyFolder, artifact.getFile().getName() );
+        if ( !unpackFile.isFile() )
+        {
+            getLog().warn( String.format( "%s is not available as %s, skipping it", artifact, unpackFile ) );
+            return;
+        }
+        String where = unzipSelection.getWhere();
+        if ( where == null )
+        {
+            where = String.format( "%s_%s", artifact.getArtifactId(), artifact.getType() );
+        }
+        File destDirectory = new File( dependencyFolder, where );
+
+        String markerName = String.format( "%s_%s", unpackFile.getName(), where.replaceAll( "[^\\w.-]", "_" ) );
+        ReferencedFiles.Selection referenced = referencedFiles == null ? null : referencedFiles.in( destDirectory );
+        String selectors = describeSelection( unzipSelection );
+        if ( referenced != null )
+        {
+            selectors = String.format( "%s, %s", selectors, referenced.describe() );
+        }
+        ExtractionMarker marker = createMarker( markerName, unpackFile, destDirectory, selectors );
+        if ( isExtracted( marker, unpackFile ) )
+        {
+            return;
+        }
+        try
+        {
+            getLog().info( String.format( "Unpacking %s to %s", unpackFile.getName(),
+                destDirectory.getCanonicalPath() ) );
+            if ( !destDirectory.exists() )
+            {
+                destDirectory.mkdirs();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoFailureException( "Failed to extract a zip file", e );
+        }
+        unpacker.setSourceFile( unpackFile );
+        unpacker.setOverwrite( false );
+        List<FileSelector> fileSelectors = new ArrayList<FileSelector>( 2 );
+        if ( unzipSelection.getFiles() != null )
+        {
+            fileSelectors.add( unzipSelection.getFiles() );
+        }
+        if ( referenced != null )
+        {
+            fileSelectors.add( referenced );
+        }
+        unpacker.setFileSelectors( fileSelectors.isEmpty() ? null
+                        : fileSelectors.toArray( new FileSelector[fileSelectors.size()] ) );
+        String md5 = null;
+        if ( useExtractionCache )
+        {
+            try
+            {
+                md5 = extractThroughCache( unpackFile, selectors, new ExtractionCache.Extractor()
                 {
-                    Collection<File> subfolderUnpackFiles = FileUtils.listFiles( dependencyFolder, null, false );
-                    for ( File subfolderUnpackFile : subfolderUnpackFiles )
+                    public void extract( File archive, File directory )
                     {
-                        if ( unzipsForFiles.containsKey( subfolderUnpackFile.getName() ) )
-                        {
-                            Unzip unzipSelection = unzipsForFiles.get( subfolderUnpackFile.getName() );
+                        unpacker.setDestDirectory( directory );
+                        unpacker.extract();
+                    }
+                }, destDirectory );
+            }
+            catch ( IOException e )
+            {
+                String message = String.format( "Failed to unpack %s to %s", unpackFile, destDirectory );
+                getLog().debug( message, e );
+                throw new MojoFailureException( e, "Failed to extract a zip file", message );
+            }
+        }
+        else
+        {
+            unpacker.setDestDirectory( destDirectory );
+            unpacker.extract();
+        }
+        writeMarker( marker, md5 );
+    }
 
-                                            
-                            File destDirectory = new File( dependencyFolder,
-                                unzipSelection.getWhere() );
-                            try
-                            {
-                                getLog().info(
-                                    String.format( "Unpacking %s to %s", subfolderUnpackFile.getName(),
-                                        destDirectory.getCanonicalPath() ) );
-                                if ( !destDirectory.exists() )
-                                {
-                                    destDirectory.mkdirs();
-                                }
-                            }
-                            catch ( IOException e )
-                            {
-                                throw new MojoFailureException( "Failed to extract a zip file", e );
-                            }
-                            unpacker.setSourceFile( subfolderUnpackFile );
-                            unpacker.setOverwrite( false );
-                            if ( unzipSelection.getFiles() != null )
+    private void unpackPrzFiles( Collection<File> flatUnpackFiles )
+        throws MojoFailureException
+    {
+        final ReferencedFiles.Selection referenced =
+            referencedFiles == null ? null : referencedFiles.in( dependencyFolder );
+        String selectors = referenced == null ? "flat" : String.format( "flat, %s", referenced.describe() );
+        PrzExtractor extractor = new PrzExtractor( extractionThreads );
+        extractor.setMapped( mappedExtraction );
+        extractor.setSelection( referenced );
+        List<ExtractionMarker> markers = new ArrayList<ExtractionMarker>();
+        Map<File, String> md5s = new HashMap<File, String>();
+        for ( File flatUnpackFile : flatUnpackFiles )
+        {
+            ExtractionMarker marker =
+                createMarker( flatUnpackFile.getName(), flatUnpackFile, dependencyFolder, selectors );
+            if ( isExtracted( marker, flatUnpackFile ) )
+            {
+                extractor.addExtractedArchive( flatUnpackFile );
+            }
+            else
+            {
+                getLog().info( String.format( "Unpacking %s", flatUnpackFile.getName() ) );
+                extractor.addArchive( flatUnpackFile );
+                markers.add( marker );
+            }
+        }
+        if ( markers.isEmpty() )
+        {
+            return;
+        }
+        try
+        {
+            if ( useExtractionCache )
+            {
+                extractor.checkConflicts( dependencyFolder );
+                for ( ExtractionMarker marker : markers )
+                {
+                    md5s.put( marker.getSource(),
+                        extractThroughCache( marker.getSource(), selectors, new ExtractionCache.Extractor()
+                        {
+                            public void extract( File archive, File directory )
+                                throws IOException
                             {
-                                FileSelector[] fileSelectors = { unzipSelection.getFiles(), };
-                                unpacker.setFileSelectors( fileSelectors );
+                                PrzExtractor single = new PrzExtractor( extractionThreads );
+                                single.setMapped( mappedExtraction );
+                                single.setSelection( referenced );
+                                single.addArchive( archive );
+                                single.extract( directory );
                             }
-                            unpacker.setDestDirectory(
-                                    destDirectory );
-                            unpacker.extract();
-                        }
-                    }
+                        }, dependencyFolder ) );
                 }
             }
             else
             {
-                getLog().info( "Nothing to unzip" );
+                int entries = extractor.extract( dependencyFolder );
+                getLog().debug( String.format( "Extracted %d entries with %d threads", entries, extractionThreads ) );
             }
         }
-        else
+        catch ( IOException e )
         {
-            getLog().info( "No dependencies to extract" );
+            String message = String.format( "Failed to unpack prz files to %s: %s", dependencyFolder, e.getMessage() );
+            String shortMessage = "Failed to unpack prz files";
+            getLog().debug( message, e );
+            throw new MojoFailureException( e, shortMessage, message );
+        }
+        for ( ExtractionMarker marker : markers )
+        {
+            writeMarker( marker, md5s.get( marker.getSource() ) );
         }
     }
 
+    private void writeEntryManifest( Collection<File> flatUnpackFiles )
+        throws MojoFailureException
+    {
+        PrzExtractor extractor = new PrzExtractor( 1 );
+        for ( File flatUnpackFile : flatUnpackFiles )
+        {
+            extractor.addArchive( flatUnpackFile );
+        }
+        try
+        {
+            EntryManifest manifest = extractor.index( dependencyFolder );
+            manifest.store( dependencyEntriesFile );
+            getLog().info( String.format( "%d files of %d prz files left packed, listed in %s",
+                manifest.getEntries().size(), flatUnpackFiles.size(), dependencyEntriesFile ) );
+        }
+        catch ( IOException e )
+        {
+            String message = String.format( "Failed to list prz files in %s: %s", dependencyEntriesFile,
+                e.getMessage() );
+            String shortMessage = "Failed to list prz files";
+            getLog().debug( message, e );
+            throw new MojoFailureException( e, shortMessage, message );
+        }
+    }
+
+    /**
+     * Places an archive through the extraction cache.
+     * 
+     * @return MD5 of the archive, as known to the cache
+     */
+    private String extractThroughCache( File archive, String selectors, ExtractionCache.Extractor extractor,
+                                        File destDirectory )
+        throws IOException
+    {
+        ExtractionCache cache = new ExtractionCache( extractionCacheFolder, extractionCacheSize * MEGABYTE );
+        DirectorySynchronizer stager = new DirectorySynchronizer( StagingMode.HARDLINK );
+        boolean cached = cache.materialize( archive, selectors, extractor, destDirectory, stager );
+        getLog().info( String.format( "%s %s the extraction cache: %s", archive.getName(),
+            cached ? "placed from" : "extracted to", stager ) );
+        return cache.md5Of( archive );
+    }
+
+    private ExtractionMarker createMarker( String name, File archive, File destDirectory, String selectors )
+    {
+        File markerFile = new File( extractionMarkersFolder, name + ".marker" );
+        return new ExtractionMarker( markerFile, archive, destDirectory, selectors );
+    }
+
+    /**
+     * Checks the extraction marker of an archive. When the archive is to be extracted, its marker is removed so that
+     * an interrupted extraction is never taken for a complete one.
+     */
+    private boolean isExtracted( ExtractionMarker marker, File archive )
+        throws MojoFailureException
+    {
+        try
+        {
+            if ( !forceExtraction && marker.isUpToDate() )
+            {
+                getLog().info( String.format( "%s is already unpacked", archive.getName() ) );
+                return true;
+            }
+        }
+        catch ( IOException e )
+        {
+            getLog().debug( String.format( "Failed to check extraction marker of %s", archive ), e );
+        }
+        marker.delete();
+        return false;
+    }
+
+    private void writeMarker( ExtractionMarker marker, String md5 )
+        throws MojoFailureException
+    {
+        try
+        {
+            marker.write( md5 );
+        }
+        catch ( IOException e )
+        {
+            String message = String.format( "Failed to write extraction marker to %s", extractionMarkersFolder );
+            String shortMessage = "Failed to write extraction marker";
+            getLog().debug( message, e );
+            throw new MojoFailureException( e, shortMessage, message );
+        }
+    }
+
+    private String describeSelection( Unzip unzipSelection )
+    {
+        IncludeExcludeFileSelector files = unzipSelection.getFiles();
+        if ( files == null )
+        {
+            return "all";
+        }
+        return String.format( "includes=%s, excludes=%s, caseSensitive=%b, useDefaultExcludes=%b",
+            Arrays.toString( files.getIncludes() ), Arrays.toString( files.getExcludes() ), files.isCaseSensitive(),
+            files.isUseDefaultExcludes() );
+    }
+
     private void copyStaticFiles()
         throws MojoFailureException
     {
         try
         {
+            DirectorySynchronizer synchronizer = new DirectorySynchronizer();
+            synchronizer.setThreads( staticFilesThreads );
             if ( staticFilesFolder.exists() )
             {
-                getLog().info( "Copy static resources" );
-                if ( !staticFilesTargetFolder.exists() )
-                {
-                    staticFilesTargetFolder.mkdirs();
-                }
-                org.codehaus.plexus.util.FileUtils.copyDirectoryStructure( staticFilesFolder,
-                    staticFilesTargetFolder );
+                getLog().info( "Synchronize static resources" );
+                synchronizer.synchronize( staticFilesFolder, staticFilesTargetFolder );
+                getLog().info( String.format( "Static resources synchronized: %s", synchronizer ) );
+            }
+            else if ( staticFilesTargetFolder.exists() )
+            {
+                getLog().info( String.format( "No static resources, removing %s", staticFilesTargetFolder ) );
+                FileUtils.deleteDirectory( staticFilesTargetFolder );
             }
             else
             {
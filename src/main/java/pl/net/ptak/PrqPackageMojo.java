@@ -20,20 +20,30 @@ package pl.net.ptak;
  */
 
 import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
-import org.codehaus.plexus.archiver.Archiver;
-import org.codehaus.plexus.archiver.util.DefaultFileSet;
-import org.codehaus.plexus.archiver.zip.ZipArchiver;
+import org.codehaus.plexus.util.StringUtils;
+
+import pl.net.ptak.helpers.CompressionPolicy;
+import pl.net.ptak.helpers.PackagingManifest;
+import pl.net.ptak.helpers.PrzArchiver;
 
 /**
- * Packs the folder and selects the archive as an artifact.
+ * Packs the folder and selects the archive as an artifact. When prq-prepackage ran in direct packaging mode, the
+ * archive is built from the original file locations it recorded instead.
  * 
  * @author Tomasz Ptak
  */
@@ -42,12 +52,6 @@ public class PrqPackageMojo
     extends AbstractMojo
 {
 
-    /**
-     * The Archiver which will be responsible for packaging of the artifact
-     */
-    @Component( hint = "zip", role = Archiver.class )
-    private ZipArchiver zipArchiver;
-
     /**
      * The name of folder in which data is placed for packaging
      */
@@ -68,7 +72,63 @@ public class PrqPackageMojo
     private MavenProject project;
 
     /**
-     * This Mojo gathers all deliverables into one archive and selects it as a project artifact
+     * Number of threads compressing archive entries. Entries are always written in the same order, so the archive is
+     * byte for byte the same regardless of this value.
+     */
+    @Parameter( property = "packagingThreads", defaultValue = "1", required = true )
+    private int packagingThreads;
+
+    /**
+     * Deflate level of archive entries, from 0 (no compression) to 9 (best compression). -1 stands for the default
+     * level.
+     */
+    @Parameter( property = "compressionLevel", defaultValue = "-1", required = true )
+    private int compressionLevel;
+
+    /**
+     * Extensions of files which are stored in the archive without compression, eg. exe, cab, msi, zip. Most of the
+     * content of a prerequisite is compressed already and deflating it costs time without saving space.
+     */
+    @Parameter( property = "storedExtensions" )
+    private List<String> storedExtensions;
+
+    /**
+     * Ant-style patterns of paths within the archive, eg. **&#47;DiskImages/**, of files which are stored without
+     * compression.
+     */
+    @Parameter( property = "storedFiles" )
+    private List<String> storedFiles;
+
+    /**
+     * Sample the beginning of each file and store the file without compression when the sample doesn't compress
+     * well. Files matching storedExtensions or storedFiles are never sampled.
+     */
+    @Parameter( property = "autoStore", defaultValue = "false", required = true )
+    private boolean autoStore;
+
+    /**
+     * In autoStore mode, files whose sample can't be compressed below this fraction of its size are stored.
+     */
+    @Parameter( property = "autoStoreRatio", defaultValue = "0.9", required = true )
+    private double autoStoreRatio;
+
+    /**
+     * Date stored for all entries of the archive, either in ISO 8601 format (eg. 2014-01-01T00:00:00Z) or as seconds
+     * since the epoch. With a date set, the same inputs always produce a byte for byte identical archive. When not
+     * set, modification dates of the files are used.
+     */
+    @Parameter( property = "outputTimestamp", defaultValue = "${project.build.outputTimestamp}" )
+    private String outputTimestamp;
+
+    /**
+     * Create the archive even if nothing it is created from changed since it was last created.
+     */
+    @Parameter( property = "forceRepackaging", defaultValue = "false", required = true )
+    private boolean forceRepackaging;
+
+    /**
+     * This Mojo gathers all deliverables into one archive and selects it as a project artifact. The digest of
+     * everything the archive is created from is stored next to it and when it matches, the existing archive is kept.
      * 
      * @throws MojoExecutionException .
      * @throws MojoFailureException when plugin execution result was other than expected
@@ -78,16 +138,39 @@ public class PrqPackageMojo
         throws MojoExecutionException, MojoFailureException
     {
         File output = new File( String.format( "%s/%s.prz", targetFolder, finalName ) );
-        getLog().info( String.format( "Packaging data from %s to %s", prePackageFolder, output.getName() ) );
-        DefaultFileSet fileSet = new DefaultFileSet();
-        fileSet.setDirectory( prePackageFolder );
+        Object packagingManifest = getPluginContext().get( PackagingManifest.CONTEXT_KEY );
+        File digestFile = new File( output.getPath() + ".inputs" );
+        Long fixedTimestamp = parseOutputTimestamp();
+        PrzArchiver archiver = new PrzArchiver( packagingThreads, new File( targetFolder ) );
+        archiver.setCompressionPolicy( createCompressionPolicy() );
+        archiver.setFixedTimestamp( fixedTimestamp );
         try
         {
-            zipArchiver.addFileSet( fileSet );
-            zipArchiver.setDestFile( output );
-            zipArchiver.createArchive();
+            if ( packagingManifest instanceof PackagingManifest )
+            {
+                getLog().info( String.format( "Packaging data from original locations to %s", output.getName() ) );
+                addToArchive( archiver, (PackagingManifest) packagingManifest, fixedTimestamp );
+            }
+            else
+            {
+                getLog().info( String.format( "Packaging data from %s to %s", prePackageFolder, output.getName() ) );
+                archiver.addDirectory( "", prePackageFolder );
+            }
+            String inputDigest = archiver.getInputDigest();
+            if ( !forceRepackaging && output.isFile() && digestFile.isFile()
+                && inputDigest.equals( FileUtils.readFileToString( digestFile, "UTF-8" ).trim() ) )
+            {
+                getLog().info( String.format( "%s is up to date", output.getName() ) );
+            }
+            else
+            {
+                FileUtils.deleteQuietly( digestFile );
+                getLog().debug( String.format( "Compressing with %d threads", packagingThreads ) );
+                archiver.createArchive( output );
+                FileUtils.writeStringToFile( digestFile, inputDigest, "UTF-8" );
+            }
         }
-        catch ( Exception e )
+        catch ( IOException e )
         {
             getLog().debug( "Failed to create archive", e );
             throw new MojoFailureException( e, "Failed to create archive",
@@ -97,4 +180,73 @@ public class PrqPackageMojo
         project.getArtifact().setFile( output );
         getLog().info( "Done packaging" );
     }
+
+    private Long parseOutputTimestamp()
+        throws MojoExecutionException
+    {
+        if ( StringUtils.isBlank( outputTimestamp ) )
+        {
+            return null;
+        }
+        String timestamp = outputTimestamp.trim();
+        if ( StringUtils.isNumeric( timestamp ) )
+        {
+            return TimeUnit.SECONDS.toMillis( Long.parseLong( timestamp ) );
+        }
+        try
+        {
+            return new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ssXXX" ).parse( timestamp ).getTime();
+        }
+        catch ( ParseException e )
+        {
+            throw new MojoExecutionException( String.format( "Invalid outputTimestamp %s, expected ISO 8601 date "
+                + "like 2014-01-01T00:00:00Z or seconds since the epoch", timestamp ), e );
+        }
+    }
+
+    private CompressionPolicy createCompressionPolicy()
+        throws MojoExecutionException
+    {
+        CompressionPolicy compressionPolicy = new CompressionPolicy();
+        try
+        {
+            compressionPolicy.setLevel( compressionLevel );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw new MojoExecutionException( e.getMessage(), e );
+        }
+        compressionPolicy.addStoredExtensions( storedExtensions );
+        compressionPolicy.addStoredPatterns( storedFiles );
+        compressionPolicy.setAuto( autoStore, autoStoreRatio );
+        return compressionPolicy;
+    }
+
+    private void addToArchive( PrzArchiver archiver, PackagingManifest packagingManifest, Long fixedTimestamp )
+        throws IOException
+    {
+        long contentTimestamp = fixedTimestamp != null ? fixedTimestamp : System.currentTimeMillis();
+        for ( Map.Entry<String, byte[]> content : packagingManifest.getContents().entrySet() )
+        {
+            getLog().debug( String.format( "Adding generated %s", content.getKey() ) );
+            archiver.addContent( content.getKey(), content.getValue(), contentTimestamp );
+        }
+        for ( Map.Entry<String, File> directory : packagingManifest.getDirectories().entrySet() )
+        {
+            getLog().debug( String.format( "Adding %s as %s", directory.getValue(), directory.getKey() ) );
+            archiver.addDirectory( directory.getKey(), directory.getValue() );
+        }
+        for ( Map.Entry<String, File> file : packagingManifest.getFiles().entrySet() )
+        {
+            getLog().debug( String.format( "Adding %s as %s", file.getValue(), file.getKey() ) );
+            archiver.addFile( file.getKey(), file.getValue() );
+        }
+        for ( Map.Entry<String, PackagingManifest.ArchivedFile> file : packagingManifest.getArchivedFiles().entrySet() )
+        {
+            PackagingManifest.ArchivedFile archivedFile = file.getValue();
+            getLog().debug( String.format( "Adding %s from %s as %s", archivedFile.getEntryName(),
+                archivedFile.getArchive(), file.getKey() ) );
+            archiver.addArchivedFile( file.getKey(), archivedFile.getArchive(), archivedFile.getEntryName() );
+        }
+    }
 }
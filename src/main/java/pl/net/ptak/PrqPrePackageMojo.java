@@ -19,39 +19,60 @@ package pl.net.ptak;
  * under the License.
  */
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Iterator;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.apache.commons.codec.digest.DigestUtils;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.DirectoryFileFilter;
-import org.apache.commons.io.filefilter.NotFileFilter;
-import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.commons.io.IOUtils;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
-import org.w3c.dom.Attr;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+
+import pl.net.ptak.helpers.ChecksumCache;
+import pl.net.ptak.helpers.DigestEngine;
+import pl.net.ptak.helpers.DirectorySynchronizer;
+import pl.net.ptak.helpers.EntryManifest;
+import pl.net.ptak.helpers.FileDigest;
+import pl.net.ptak.helpers.FileDigester;
+import pl.net.ptak.helpers.PackagingManifest;
+import pl.net.ptak.helpers.PrerequisiteFiles;
+import pl.net.ptak.helpers.PrqProcessor;
+import pl.net.ptak.helpers.StagingMode;
+import pl.net.ptak.helpers.ZipCentralDirectory;
+import pl.net.ptak.helpers.ZipDirectoryEntry;
 
 /**
  * Copies files for packaging into a folder which will be archived and prepares prerequisite. <br>
@@ -76,12 +97,32 @@ public class PrqPrePackageMojo
     extends AbstractMojo
 {
 
+    /** Folder of the InstallShield output holding the release. */
+    private static final String DISK_IMAGES = "DiskImages";
+
+    /** Folders of the InstallShield output, in lower case, which never hold DiskImages. */
+    private static final Set<String> NOT_DISK_IMAGES_PARENTS =
+        new HashSet<String>( Arrays.asList( "interm", "logfiles", "reportfiles" ) );
+
     /**
      * Location of the output of the InstallShield build.
      */
     @Parameter( defaultValue = "${project.build.directory}/output", property = "outputDir", required = true )
     private File installshieldOutputDirectory;
 
+    /**
+     * The DiskImages folder to package. When not set, it is searched for within installshieldOutputDirectory.
+     */
+    @Parameter( property = "diskImagesPath" )
+    private File diskImagesPath;
+
+    /**
+     * How many levels below installshieldOutputDirectory the DiskImages folder is searched for. InstallShield places
+     * it at the third level: product configuration, release, DiskImages.
+     */
+    @Parameter( property = "diskImagesSearchDepth", defaultValue = "5", required = true )
+    private int diskImagesSearchDepth;
+
     /**
      * The folder in which data will be placed for packaging
      */
@@ -121,6 +162,14 @@ public class PrqPrePackageMojo
     @Parameter( defaultValue = "${project.artifactId}.prq", property = "prqFile", required = true )
     private File prerequisite;
 
+    /**
+     * Prerequisite files processed together instead of prqFile: file names or patterns relative to basedir, eg.
+     * prq/*.prq. All of them are placed in the root of one archive, a file referenced by several prerequisites is
+     * copied and digested once.
+     */
+    @Parameter( property = "prqFiles" )
+    private String[] prerequisiteFiles;
+
     /**
      * The folder in which data are placed for dependency resolution
      */
@@ -135,18 +184,151 @@ public class PrqPrePackageMojo
     @Parameter( property = "failWhenNoInstallshieldFile", defaultValue = "true", required = true )
     private boolean failWhenNoInstallshieldFile;
 
+    /**
+     * Number of threads copying files referenced in the prerequisite and static files, and calculating checksums and
+     * sizes. Results are always applied to the prerequisite in document order, so the output doesn't depend on this
+     * value.
+     */
+    @Parameter( property = "prePackageThreads", defaultValue = "1", required = true )
+    private int prePackageThreads;
+
+    /**
+     * How files are placed in the pre-package folder, which is only a staging area for prq-package:
+     * <ul>
+     * <li>copy - files are copied</li>
+     * <li>hardlink - files are hard linked when they are on the same file system as the pre-package folder and copied
+     * otherwise</li>
+     * <li>symlink-then-resolve - symbolic links to files are created and resolved when prq-package creates the
+     * archive. Files are copied when symbolic links can't be created</li>
+     * </ul>
+     * The prerequisite file itself is always copied, as it is modified.
+     */
+    @Parameter( property = "stagingMode", defaultValue = "copy", required = true )
+    private String stagingMode;
+
+    /**
+     * Skip the pre-package folder entirely. When set, nothing is copied: the rewritten prerequisite is kept in memory
+     * and prq-package builds the archive straight from DiskImages, staticFilesTargetFolder and dependencyFolder, with
+     * the same layout as the pre-package folder would have. Both goals have to run within the same Maven build.
+     */
+    @Parameter( property = "directPackaging", defaultValue = "false", required = true )
+    private boolean directPackaging;
+
+    /**
+     * Files of dependencyFolder left packed in prz files by prepare-dependencies with passThroughPrz. Files
+     * referenced by the prerequisite are digested straight from the archives; with directPackaging their entries are
+     * copied into the new archive without being extracted and compressed again.
+     */
+    @Parameter( defaultValue = "${project.build.directory}/dependency-entries.properties",
+                    property = "dependencyEntriesFile", required = true )
+    private File dependencyEntriesFile;
+
+    /**
+     * Should checksums of files referenced in the prerequisite be cached between builds? A file which has the same
+     * canonical path, size and last modification date as the last time it was seen is not read again, unless it needs
+     * to be copied.
+     */
+    @Parameter( property = "useChecksumCache", defaultValue = "true", required = true )
+    private boolean useChecksumCache;
+
+    /**
+     * The file holding the checksum cache of this project.
+     */
+    @Parameter( defaultValue = "${project.build.directory}/prq-checksums.cache", property = "checksumCacheFile",
+                    required = true )
+    private File checksumCacheFile;
+
+    /**
+     * An optional checksum cache file shared between projects and builds, eg.
+     * ${settings.localRepository}/.cache/installshield-maven-plugin/prq-checksums.cache. It is consulted when a file is
+     * not found in checksumCacheFile. The file can be safely used by several Maven processes at a time.
+     */
+    @Parameter( property = "sharedChecksumCacheFile" )
+    private File sharedChecksumCacheFile;
+
+    /**
+     * Maximum number of entries kept in each checksum cache. The least recently used entries are evicted first.
+     */
+    @Parameter( property = "checksumCacheSize", defaultValue = "10000", required = true )
+    private int checksumCacheSize;
+
+    /**
+     * Optional manifest of the files referenced by the prerequisites, listing the digest and the path within the
+     * archive of each in the format of sha256sum. The digests are calculated in the same read of a file as its
+     * CheckSum and are kept in the checksum caches with it.
+     */
+    @Parameter( property = "integrityManifestFile" )
+    private File integrityManifestFile;
+
+    /**
+     * Digest algorithm of integrityManifestFile, any algorithm available to the JDK, eg. SHA-256 or SHA-512.
+     */
+    @Parameter( property = "integrityDigestAlgorithm", defaultValue = "SHA-256", required = true )
+    private String integrityDigestAlgorithm;
+
     /**
      * A base directory for given project
      */
     @Parameter( defaultValue = "${basedir}", readonly = true, required = true )
     private File basedir;
 
+    /**
+     * Reads and rewrites prerequisites, shared by all executions of the plugin.
+     */
+    @Component( role = PrqProcessor.class )
+    private PrqProcessor prqProcessor;
+
     /**
      * This is a reference to a packaged DiskImages Folder. It is one of three possible sources of files referenced in a
      * prerequisite.
      */
     private File packagedDiskImagesFolder = null;
 
+    /**
+     * Prerequisites processed by this execution.
+     */
+    private List<File> prerequisites;
+
+    /**
+     * Digests calculated for files referenced by the prerequisites.
+     */
+    private DigestEngine digestEngine;
+
+    /**
+     * Checksum caches in the order of lookup, empty when caching is disabled.
+     */
+    private List<ChecksumCache> checksumCaches = new ArrayList<ChecksumCache>();
+
+    /**
+     * Files and directories placed in the pre-package folder by this execution. Anything else found there is stale.
+     */
+    private Set<File> stagedFiles = new HashSet<File>();
+
+    /**
+     * Places dependency files referenced in the prerequisite in the pre-package folder.
+     */
+    private DirectorySynchronizer dependencyStager;
+
+    /**
+     * Files of dependencyFolder left packed by prepare-dependencies, null when all files are extracted.
+     */
+    private EntryManifest dependencyEntries;
+
+    /**
+     * Archives holding files of dependencyEntries, opened when the first of their files is digested.
+     */
+    private final Map<File, ZipCentralDirectory> dependencyArchives = new HashMap<File, ZipCentralDirectory>();
+
+    /**
+     * Channels of dependencyArchives.
+     */
+    private final List<FileChannel> dependencyArchiveChannels = new ArrayList<FileChannel>();
+
+    /**
+     * Content of the archive in direct packaging mode, null when files are staged in the pre-package folder.
+     */
+    private PackagingManifest packagingManifest;
+
     /**
      * This Mojo gathers all deliverables into one folder for packaging
      * 
@@ -158,7 +340,7 @@ public class PrqPrePackageMojo
         throws MojoExecutionException, MojoFailureException
     {
         getLog().info( String.format( "Beginning preparation of data in folder %s", prePackageFolder.getName() ) );
-        if ( !prePackageFolder.exists() )
+        if ( !directPackaging && !prePackageFolder.exists() )
         {
             prePackageFolder.mkdirs();
             prePackageInstallerSubFolder.mkdirs();
@@ -170,183 +352,495 @@ public class PrqPrePackageMojo
             throw new MojoFailureException( "InstallShield project file not found" );
         }
 
-        if ( !prerequisite.exists() )
+        prerequisites = PrerequisiteFiles.resolve( basedir, prerequisite, prerequisiteFiles );
+        if ( prerequisites.isEmpty() )
         {
-
-            getLog().error( String.format( "Prq File available: %b", prerequisite.exists() ) );
+            getLog().error( String.format( "No prerequisite matches %s", Arrays.toString( prerequisiteFiles ) ) );
             throw new MojoFailureException( "InstallShield prerequisite file not found" );
         }
+        for ( File prq : prerequisites )
+        {
+            if ( !prq.exists() )
+            {
+
+                getLog().error( String.format( "Prq File %s available: %b", prq, prq.exists() ) );
+                throw new MojoFailureException( "InstallShield prerequisite file not found" );
+            }
+        }
+
+        StagingMode mode;
+        try
+        {
+            mode = StagingMode.fromString( stagingMode );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw new MojoExecutionException( e.getMessage(), e );
+        }
+        getLog().debug( String.format( "Staging mode: %s", mode.getId() ) );
+
+        try
+        {
+            digestEngine =
+                integrityManifestFile == null ? DigestEngine.MD5_ONLY : new DigestEngine( integrityDigestAlgorithm );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw new MojoExecutionException( e.getMessage(), e );
+        }
+        getLog().debug( String.format( "Digests: %s", digestEngine.getAlgorithms() ) );
+
+        stagedFiles.clear();
+        dependencyStager = new DirectorySynchronizer( mode );
+        packagingManifest = directPackaging ? new PackagingManifest() : null;
 
         prepareBuildOutputForPackaging();
 
         prepareStaticFilesForPackaging();
 
+        loadChecksumCaches();
+
+        loadDependencyEntries();
+
         preparePrerequisiteForPackaging();
 
+        saveChecksumCaches();
+
+        // the plugin context is a raw map in the plugin API
+        @SuppressWarnings( "unchecked" )
+        Map<String, Object> pluginContext = getPluginContext();
+        if ( directPackaging )
+        {
+            getLog().info( "Direct packaging, the archive will be created from original file locations" );
+            pluginContext.put( PackagingManifest.CONTEXT_KEY, packagingManifest );
+        }
+        else
+        {
+            pluginContext.remove( PackagingManifest.CONTEXT_KEY );
+            removeStaleFiles();
+        }
+
         getLog().info( "Done prepackaging" );
     }
 
-    private void preparePrerequisiteForPackaging()
+    private void loadDependencyEntries()
         throws MojoFailureException
     {
+        dependencyEntries = null;
+        if ( !dependencyEntriesFile.isFile() )
+        {
+            return;
+        }
         try
         {
-            getLog().info( String.format( "Preparing %s for packaging", prerequisite.getCanonicalPath() ) );
-            org.codehaus.plexus.util.FileUtils.copyFileToDirectory( prerequisite, prePackageFolder );
-            File targetPrqFile = new File( prePackageFolder, prerequisite.getName() );
-
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder docBuilder = factory.newDocumentBuilder();
-            Document doc = docBuilder.parse( targetPrqFile );
-
-            Element root = (Element) doc.getFirstChild();
-            NodeList filesElements = root.getElementsByTagName( "files" );
+            dependencyEntries = EntryManifest.load( dependencyEntriesFile );
+            getLog().info( String.format( "%d dependency files are read from prz files listed in %s",
+                dependencyEntries.getEntries().size(), dependencyEntriesFile ) );
+        }
+        catch ( IOException e )
+        {
+            String message = String.format( "Failed to read %s", dependencyEntriesFile );
+            String shortMessage = "Failed to read packed dependency files";
+            getLog().debug( message, e );
+            throw new MojoFailureException( e, shortMessage, message );
+        }
+    }
 
-            if ( filesElements.getLength() > 1 )
+    private void loadChecksumCaches()
+        throws MojoFailureException
+    {
+        checksumCaches.clear();
+        if ( !useChecksumCache )
+        {
+            return;
+        }
+        checksumCaches.add( new ChecksumCache( checksumCacheFile, checksumCacheSize ) );
+        if ( sharedChecksumCacheFile != null )
+        {
+            checksumCaches.add( new ChecksumCache( sharedChecksumCacheFile, checksumCacheSize ) );
+        }
+        for ( ChecksumCache checksumCache : checksumCaches )
+        {
+            try
             {
-                throw new MojoFailureException( "There should be at most one files element" );
+                checksumCache.load();
             }
-
-            if ( filesElements.getLength() == 1 )
+            catch ( IOException e )
             {
-                Node filesList = filesElements.item( 0 );
+                String message = String.format( "Failed to read checksum cache %s", checksumCache.getCacheFile() );
+                String shortMessage = "Failed to read checksum cache";
+                getLog().debug( message, e );
+                throw new MojoFailureException( e, shortMessage, message );
+            }
+        }
+    }
 
-                NodeList files = filesList.getChildNodes();
+    private void saveChecksumCaches()
+        throws MojoFailureException
+    {
+        for ( ChecksumCache checksumCache : checksumCaches )
+        {
+            try
+            {
+                checksumCache.save();
+            }
+            catch ( IOException e )
+            {
+                String message = String.format( "Failed to write checksum cache %s", checksumCache.getCacheFile() );
+                String shortMessage = "Failed to write checksum cache";
+                getLog().debug( message, e );
+                throw new MojoFailureException( e, shortMessage, message );
+            }
+        }
+    }
 
-                for ( int i = 0; i < files.getLength(); i++ )
+    /**
+     * Prepares all prerequisites in one pass: the file entries of all of them are processed together, so a file
+     * referenced by several prerequisites is copied and digested once, and then each prerequisite is rewritten.
+     * 
+     * @throws MojoFailureException when a prerequisite or a file it references can't be processed
+     */
+    private void preparePrerequisiteForPackaging()
+        throws MojoFailureException
+    {
+        File prq = null;
+        try
+        {
+            Map<File, List<PendingFileEntry>> entriesByPrerequisite =
+                new LinkedHashMap<File, List<PendingFileEntry>>();
+            List<PendingFileEntry> allEntries = new ArrayList<PendingFileEntry>();
+            Set<String> targetNames = new HashSet<String>();
+            for ( File current : prerequisites )
+            {
+                prq = current;
+                getLog().info( String.format( "Preparing %s for packaging", prq.getCanonicalPath() ) );
+                if ( !targetNames.add( prq.getName().toLowerCase( Locale.ROOT ) ) )
                 {
-                    Node fileNode = files.item( i );
-
-                    if ( !( fileNode instanceof Element ) )
-                    {
-                        continue;
-                    }
-
-                    NamedNodeMap fileAttributes = fileNode.getAttributes();
-
-                    Attr dependencyFileAttr = (Attr) fileAttributes.getNamedItem( "LocalFile" );
-
-                    File dependencyFile = getFileFromPrq( dependencyFileAttr, i );
+                    throw new MojoFailureException( String.format(
+                        "%s has the same name as another prerequisite, they can't be packaged together", prq ) );
+                }
+                List<PendingFileEntry> fileEntries = collectFileEntries( prq );
+                entriesByPrerequisite.put( prq, fileEntries );
+                allEntries.addAll( fileEntries );
+            }
+            prq = null;
 
-                    if ( !dependencyFile.exists() )
-                    {
-                        String message =
-                            String.format( "%s is referenced in prq file, but it does not exist",
-                                dependencyFile.getAbsolutePath() );
-                        throw new MojoFailureException( message );
-                    }
+            updateFileEntries( allEntries );
+            if ( integrityManifestFile != null )
+            {
+                writeIntegrityManifest( allEntries );
+            }
 
-                    // set new relative path to dependency
-                    setNewRelativePathForFile( dependencyFileAttr, dependencyFile );
-                    // calculate new md5 checksum
-                    Attr checkSumAttr = (Attr) fileAttributes.getNamedItem( "CheckSum" );
-                    setNewMd5ChecksumForFile( checkSumAttr, dependencyFile );
-                    // calculate new size
-                    Attr fileSizeAttr = (Attr) fileAttributes.getNamedItem( "FileSize" );
-                    setNewSizeForFile( fileSizeAttr, dependencyFile );
+            for ( Map.Entry<File, List<PendingFileEntry>> entries : entriesByPrerequisite.entrySet() )
+            {
+                prq = entries.getKey();
+                File targetPrqFile = new File( prePackageFolder, prq.getName() );
+                if ( directPackaging )
+                {
+                    ByteArrayOutputStream content = new ByteArrayOutputStream();
+                    rewritePrerequisite( prq, entries.getValue(), content );
+                    packagingManifest.addContent( archivePathOf( targetPrqFile ), content.toByteArray() );
+                }
+                else
+                {
+                    stagedFiles.add( targetPrqFile.getAbsoluteFile() );
+                    stagePrerequisite( prq, entries.getValue(), targetPrqFile );
                 }
             }
 
-            TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            Transformer transformer = transformerFactory.newTransformer();
-            DOMSource source = new DOMSource( doc );
-            StreamResult result = new StreamResult( targetPrqFile );
-            transformer.transform( source, result );
-
         }
         catch ( IOException e )
         {
-            String message = String.format( "Failed to copy %s to %s", prerequisite, prePackageFolder );
-            String shortMessage = "Failed to copy resources";
+            String message =
+                String.format( "Failed to modify prq file %s: %s", prq == null ? "" : prq.getName(), e.getMessage() );
+            String shortMessage = "Failed to prepare prerequisite for packaging";
             getLog().debug( message, e );
             throw new MojoFailureException( e, shortMessage, message );
         }
-        catch ( ParserConfigurationException e )
+    }
+
+    /**
+     * Writes integrityManifestFile, unless its content is the same already.
+     * 
+     * @param fileEntries processed entries of all prerequisites
+     * @throws IOException when the manifest can't be written
+     */
+    private void writeIntegrityManifest( List<PendingFileEntry> fileEntries )
+        throws IOException
+    {
+        Map<String, String> digestsByPath = new TreeMap<String, String>();
+        for ( PendingFileEntry fileEntry : fileEntries )
         {
-            String message = "Failed to create prq file parser";
-            String shortMessage = "Failed to prepare prerequisite for packaging";
-            getLog().debug( message, e );
-            throw new MojoFailureException( e, shortMessage, message );
+            String path = fileEntry.localFile.replace( '\\', '/' );
+            while ( path.startsWith( "./" ) )
+            {
+                path = path.substring( 2 );
+            }
+            digestsByPath.put( path, fileEntry.result.getDigest( integrityDigestAlgorithm ) );
         }
-        catch ( SAXException e )
+        StringBuilder manifest = new StringBuilder();
+        for ( Map.Entry<String, String> digest : digestsByPath.entrySet() )
         {
-            String message = "Failed to modify prq file";
-            String shortMessage = "Failed to prepare prerequisite for packaging";
-            getLog().debug( message, e );
-            throw new MojoFailureException( e, shortMessage, message );
+            manifest.append( digest.getValue() ).append( "  " ).append( digest.getKey() ).append( '\n' );
         }
-        catch ( TransformerConfigurationException e )
+        byte[] content = manifest.toString().getBytes( "UTF-8" );
+        if ( !integrityManifestFile.isFile()
+            || !Arrays.equals( content, FileUtils.readFileToByteArray( integrityManifestFile ) ) )
         {
-            String message = "Failed to prepare transformer for storing prq file";
-            String shortMessage = "Failed to prepare prerequisite for packaging";
-            getLog().debug( message, e );
-            throw new MojoFailureException( e, shortMessage, message );
+            FileUtils.writeByteArrayToFile( integrityManifestFile, content );
         }
-        catch ( TransformerException e )
+        getLog().info( String.format( "%s digests of %d files written to %s", integrityDigestAlgorithm,
+            digestsByPath.size(), integrityManifestFile ) );
+    }
+
+    /**
+     * Reads the file entries of a prerequisite, the children of its files element.
+     * 
+     * @param prq the prerequisite
+     * @return the entries in document order
+     * @throws MojoFailureException when an entry has no LocalFile
+     * @throws IOException when the prerequisite can't be read or parsed
+     */
+    private List<PendingFileEntry> collectFileEntries( File prq )
+        throws MojoFailureException, IOException
+    {
+        List<PendingFileEntry> fileEntries = new ArrayList<PendingFileEntry>();
+        for ( String localFile : prqProcessor.readLocalFiles( prq ) )
         {
-            String message = "Failed to run transformer for storing prq file";
-            String shortMessage = "Failed to prepare prerequisite for packaging";
-            getLog().debug( message, e );
-            throw new MojoFailureException( e, shortMessage, message );
+            fileEntries.add( new PendingFileEntry( getFileFromPrq( prq, localFile, fileEntries.size() ) ) );
         }
+        return fileEntries;
     }
 
     /**
-     * @param fileSizeAttr
-     * @param dependencyFile
+     * Rewrites a prerequisite with the new paths, checksums and sizes of its file entries.
+     * 
+     * @param prq the prerequisite
+     * @param fileEntries processed entries in document order
+     * @param output receives the new content of the prerequisite
+     * @throws IOException when the prerequisite can't be read or parsed
      */
-    private void setNewSizeForFile( Attr fileSizeAttr, File dependencyFile )
+    private void rewritePrerequisite( File prq, List<PendingFileEntry> fileEntries, OutputStream output )
+        throws IOException
     {
-        fileSizeAttr.setValue( String.format( "0,%d", dependencyFile.length() ) );
+        List<PrqProcessor.FileEntryUpdate> updates = new ArrayList<PrqProcessor.FileEntryUpdate>();
+        for ( PendingFileEntry fileEntry : fileEntries )
+        {
+            updates.add( new PrqProcessor.FileEntryUpdate( fileEntry.localFile, fileEntry.result ) );
+        }
+        prqProcessor.rewrite( prq, updates, output );
     }
 
     /**
-     * @param dependencyFile
-     * @param dependencyFileAttr
+     * Rewrites a prerequisite into the pre-package folder. The new content is written next to the target first and
+     * only replaces it when it differs: rewriting an unchanged prq would change its date and with it the input digest
+     * of the archive.
+     * 
+     * @param prq the prerequisite
+     * @param fileEntries processed entries in document order
+     * @param target the rewritten prerequisite
+     * @throws IOException when the prerequisite can't be read or parsed or the target can't be written
      */
-    private void setNewMd5ChecksumForFile( Attr dependencyFileAttr, File dependencyFile )
-        throws MojoFailureException
+    private void stagePrerequisite( File prq, List<PendingFileEntry> fileEntries, File target )
+        throws IOException
     {
-        FileInputStream fileInputStream = null;
+        FileUtils.forceMkdir( target.getParentFile() );
+        File rewritten = File.createTempFile( target.getName(), ".tmp", target.getParentFile() );
         try
         {
-            fileInputStream = new FileInputStream( dependencyFile );
-            String md5 = DigestUtils.md5Hex( fileInputStream );
-            dependencyFileAttr.setValue( md5.toUpperCase() );
+            OutputStream output = new FileOutputStream( rewritten );
+            try
+            {
+                rewritePrerequisite( prq, fileEntries, output );
+            }
+            finally
+            {
+                output.close();
+            }
+            if ( !target.isFile() || !FileUtils.contentEquals( rewritten, target ) )
+            {
+                Files.move( rewritten.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            }
         }
-        catch ( FileNotFoundException e )
+        finally
         {
-            String message = String.format( "File %s not found", dependencyFile );
-            String shortMessage = "File not found";
-            getLog().debug( message, e );
-            throw new MojoFailureException( e, shortMessage, message );
+            FileUtils.deleteQuietly( rewritten );
         }
-        catch ( IOException e )
+    }
+
+    /**
+     * Updates paths, checksums and sizes of all file entries. Files are copied and digested by a pool of
+     * prePackageThreads workers, a file referenced more than once is processed once. The results are stored in the
+     * entries in document order once all files are done.
+     * 
+     * @param fileEntries the file entries of all prerequisites
+     * @throws MojoFailureException when any of the files can't be processed
+     * @throws IOException when canonical path of a file can't be resolved
+     */
+    private void updateFileEntries( List<PendingFileEntry> fileEntries )
+        throws MojoFailureException, IOException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( Math.max( 1, prePackageThreads ) );
+        try
         {
-            String message = String.format( "Failed to calculate checksum for file %s", dependencyFile );
-            String shortMessage = "Failed to calculate checksum";
-            getLog().debug( message, e );
-            throw new MojoFailureException( e, shortMessage, message );
+            Map<File, Future<FileDigest>> digestsByFile = new HashMap<File, Future<FileDigest>>();
+
+            for ( PendingFileEntry fileEntry : fileEntries )
+            {
+                File dependencyFile = fileEntry.file;
+
+                String entryName =
+                    dependencyEntries == null ? null : dependencyEntries.pathOf( dependencyFolder, dependencyFile );
+                if ( entryName != null )
+                {
+                    addArchivedFileEntry( fileEntry, entryName, executor, digestsByFile );
+                    continue;
+                }
+
+                if ( !dependencyFile.exists() )
+                {
+                    String message =
+                        String.format( "%s is referenced in prq file, but it does not exist",
+                            dependencyFile.getAbsolutePath() );
+                    throw new MojoFailureException( message );
+                }
+
+                // set new relative path to dependency
+                File copyTarget = setNewRelativePathForFile( fileEntry );
+                if ( copyTarget != null && directPackaging )
+                {
+                    packagingManifest.addFile( archivePathOf( copyTarget ), dependencyFile );
+                    copyTarget = null;
+                }
+                else if ( copyTarget != null )
+                {
+                    stagedFiles.add( copyTarget.getAbsoluteFile() );
+                }
+
+                // copy if needed, calculate checksum and size in a single read
+                File canonicalFile = dependencyFile.getCanonicalFile();
+                Future<FileDigest> digest = digestsByFile.get( canonicalFile );
+                if ( digest == null )
+                {
+                    digest = executor.submit( new DigestTask( dependencyFile, copyTarget ) );
+                    digestsByFile.put( canonicalFile, digest );
+                }
+                fileEntry.digest = digest;
+            }
+
+            for ( PendingFileEntry fileEntry : fileEntries )
+            {
+                fileEntry.result = awaitDigest( fileEntry );
+            }
         }
         finally
         {
-            try
+            executor.shutdownNow();
+            for ( FileChannel channel : dependencyArchiveChannels )
             {
-                fileInputStream.close();
+                IOUtils.closeQuietly( channel );
             }
-            catch ( IOException e )
+            dependencyArchiveChannels.clear();
+            dependencyArchives.clear();
+        }
+    }
+
+    /**
+     * Handles a file entry whose file is left packed in a prz file. With direct packaging the entry is copied into
+     * the archive as it is stored, otherwise it is extracted to the pre-package folder while being digested.
+     */
+    private void addArchivedFileEntry( PendingFileEntry fileEntry, String entryName, ExecutorService executor,
+                                       Map<File, Future<FileDigest>> digestsByFile )
+        throws MojoFailureException, IOException
+    {
+        File archive = dependencyEntries.getArchive( entryName );
+        File copyTarget = setNewRelativePathForFile( fileEntry );
+        if ( directPackaging )
+        {
+            packagingManifest.addArchivedFile( archivePathOf( copyTarget ), archive, entryName );
+            copyTarget = null;
+        }
+        else
+        {
+            stagedFiles.add( copyTarget.getAbsoluteFile() );
+        }
+
+        File canonicalFile = fileEntry.file.getCanonicalFile();
+        Future<FileDigest> digest = digestsByFile.get( canonicalFile );
+        if ( digest == null )
+        {
+            digest = executor.submit( new EntryDigestTask( openDependencyArchive( archive ), entryName, copyTarget ) );
+            digestsByFile.put( canonicalFile, digest );
+        }
+        fileEntry.digest = digest;
+    }
+
+    private ZipCentralDirectory openDependencyArchive( File archive )
+        throws IOException
+    {
+        ZipCentralDirectory directory = dependencyArchives.get( archive );
+        if ( directory == null )
+        {
+            FileChannel channel = FileChannel.open( archive.toPath(), StandardOpenOption.READ );
+            dependencyArchiveChannels.add( channel );
+            directory = new ZipCentralDirectory( channel );
+            dependencyArchives.put( archive, directory );
+        }
+        return directory;
+    }
+
+    /**
+     * Waits for the file of an entry to be processed.
+     * 
+     * @param pendingEntry the entry
+     * @return checksum and size of the file
+     * @throws MojoFailureException when the file can't be read or copied
+     */
+    private FileDigest awaitDigest( PendingFileEntry pendingEntry )
+        throws MojoFailureException
+    {
+        File dependencyFile = pendingEntry.file;
+        try
+        {
+            return pendingEntry.digest.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            String message = String.format( "Interrupted while calculating checksum for file %s", dependencyFile );
+            String shortMessage = "Failed to calculate checksum";
+            getLog().debug( message, e );
+            throw new MojoFailureException( e, shortMessage, message );
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof FileNotFoundException )
             {
-                String message = String.format( "Failed to close filestream for file %s", dependencyFile );
-                String shortMessage = "Failed to close filestream";
-                getLog().debug( message, e );
-                throw new MojoFailureException( e, shortMessage, message );
+                String message = String.format( "File %s not found", dependencyFile );
+                String shortMessage = "File not found";
+                getLog().debug( message, cause );
+                throw new MojoFailureException( cause, shortMessage, message );
             }
+            String message = String.format( "Failed to calculate checksum for file %s", dependencyFile );
+            String shortMessage = "Failed to calculate checksum";
+            getLog().debug( message, cause );
+            throw new MojoFailureException( cause, shortMessage, message );
         }
     }
 
-    private String setNewRelativePathForFile( Attr dependencyFileAttr, File dependencyFile )
+    /**
+     * Updates the path of a file referenced in prq.
+     * 
+     * @param fileEntry the file entry, whose new LocalFile is set
+     * @return the location to which the file must be copied for packaging or null if it is packaged already
+     * @throws MojoFailureException when the file is not in one of the expected locations
+     */
+    private File setNewRelativePathForFile( PendingFileEntry fileEntry )
         throws MojoFailureException
     {
+        File dependencyFile = fileEntry.file;
+        File copyTarget = null;
         try
         {
             String canonicalPath = dependencyFile.getCanonicalPath();
@@ -367,15 +861,13 @@ public class PrqPrePackageMojo
                 // IS: ./target/output/dependency/....
                 // SHOUD BE: ./target/${project.artifactId}/dependency/....
                 String relativeOutputPath =
-                    calculateAndSetNewRelativePath( dependencyFile, targetFolder, dependencyFileAttr );
+                    calculateAndSetNewRelativePath( fileEntry, targetFolder );
 
-                File copyTarget = new File( prePackageInstallerSubFolder, relativeOutputPath );
+                copyTarget = new File( prePackageInstallerSubFolder, relativeOutputPath );
 
                 getLog().info(
                     String.format( "Copying dependency file %s to %s", dependencyFile.getCanonicalPath(),
                         copyTarget.getParentFile().getCanonicalPath() ) );
-
-                FileUtils.copyFile( dependencyFile, copyTarget );
             }
             else if ( null != packagedDiskImagesFolder
                 && canonicalPath.startsWith( packagedDiskImagesFolder.getCanonicalPath() ) )
@@ -383,14 +875,13 @@ public class PrqPrePackageMojo
                 // IS: ./target/output/something/something/DiskImages/....
                 // SHOUD BE: ./target/${project.artifactId}/DiskImages/....
 
-                calculateAndSetNewRelativePath( dependencyFile, packagedDiskImagesFolder.getParentFile(),
-                    dependencyFileAttr );
+                calculateAndSetNewRelativePath( fileEntry, packagedDiskImagesFolder.getParentFile() );
             }
             else if ( canonicalPath.startsWith( staticFilesTargetFolder.getCanonicalPath() ) )
             {
                 // IS: ./target/static/....
                 // SHOUD BE: ./target/${project.artifactId}/static/....
-                calculateAndSetNewRelativePath( dependencyFile, targetFolder, dependencyFileAttr );
+                calculateAndSetNewRelativePath( fileEntry, targetFolder );
             }
             else
             {
@@ -398,7 +889,7 @@ public class PrqPrePackageMojo
                     "It is expected that referenced files come from either of these locations: %s, %s, %s",
                     dependencyFolder, packagedDiskImagesFolder, staticFilesTargetFolder ) );
             }
-            return canonicalPath;
+            return copyTarget;
         }
         catch ( IOException e )
         {
@@ -410,16 +901,17 @@ public class PrqPrePackageMojo
         }
     }
 
-    private String calculateAndSetNewRelativePath( File dependencyFile, File relativePathRoot, Attr dependencyFileAttr )
+    private String calculateAndSetNewRelativePath( PendingFileEntry fileEntry, File relativePathRoot )
         throws IOException
     {
+        File dependencyFile = fileEntry.file;
 
         String relativeOutputPath =
             dependencyFile.getCanonicalPath()
                           .substring( relativePathRoot.getCanonicalPath().length() );
         String newRelativePath = relativePackageSubFolderPrefix + relativeOutputPath;
 
-        dependencyFileAttr.setValue( newRelativePath );
+        fileEntry.localFile = newRelativePath;
 
         getLog().debug(
             String.format( "New relative path for %s was set to %s",
@@ -429,18 +921,71 @@ public class PrqPrePackageMojo
     }
 
     /**
-     * @param fileAttributes
-     * @return
-     * @throws MojoFailureException
+     * @param prq the prerequisite
+     * @param filePath value of the LocalFile attribute
+     * @param index position of the file entry
+     * @return the file referenced
+     * @throws MojoFailureException when the entry has no LocalFile attribute
      */
-    private File getFileFromPrq( Attr filePath, int index )
+    private File getFileFromPrq( File prq, String filePath, int index )
         throws MojoFailureException
     {
         if ( filePath == null )
         {
-            throw new MojoFailureException( String.format( "No file location in prerequisite file %d", index ) );
+            throw new MojoFailureException( String.format( "No file location in prerequisite file %d of %s", index,
+                prq.getName() ) );
+        }
+        return new File( basedir, filePath );
+    }
+
+    /**
+     * Calculates the path within the archive of a file which would be placed in the pre-package folder.
+     * 
+     * @param stagedFile location of the file within the pre-package folder
+     * @return the path relative to the pre-package folder, with forward slashes
+     */
+    private String archivePathOf( File stagedFile )
+    {
+        String root = prePackageFolder.getAbsolutePath();
+        String path = stagedFile.getAbsolutePath();
+        if ( path.startsWith( root ) )
+        {
+            path = path.substring( root.length() );
+        }
+        path = path.replace( File.separatorChar, '/' );
+        while ( path.startsWith( "/" ) )
+        {
+            path = path.substring( 1 );
+        }
+        return path;
+    }
+
+    /**
+     * Removes files left in the pre-package folder by previous builds, eg. dependencies no longer referenced in the
+     * prerequisite, so they don't make it to the archive.
+     * 
+     * @throws MojoFailureException when a stale file can't be deleted
+     */
+    private void removeStaleFiles()
+        throws MojoFailureException
+    {
+        try
+        {
+            DirectorySynchronizer synchronizer = new DirectorySynchronizer();
+            synchronizer.removeStale( prePackageFolder, stagedFiles );
+            if ( synchronizer.getDeletedFiles() > 0 )
+            {
+                getLog().info( String.format( "Removed %d stale files from %s", synchronizer.getDeletedFiles(),
+                    prePackageFolder ) );
+            }
+        }
+        catch ( IOException e )
+        {
+            String message = String.format( "Failed to remove stale files from %s", prePackageFolder );
+            String shortMessage = "Failed to remove stale files";
+            getLog().debug( message, e );
+            throw new MojoFailureException( e, shortMessage, message );
         }
-        return new File( basedir, filePath.getValue() );
     }
 
     private void prepareStaticFilesForPackaging()
@@ -451,15 +996,20 @@ public class PrqPrePackageMojo
             if ( staticFilesTargetFolder.exists() )
             {
                 File staticFilesCopyDestination = new File( prePackageInstallerSubFolder, "static" );
-                if ( !staticFilesCopyDestination.exists() )
+                if ( directPackaging )
                 {
-                    staticFilesCopyDestination.mkdirs();
+                    packagingManifest.addDirectory( archivePathOf( staticFilesCopyDestination ),
+                        staticFilesTargetFolder );
+                    return;
                 }
                 getLog().info(
-                    String.format( "Copying directory structure from %s to %s",
+                    String.format( "Synchronizing directory structure from %s to %s",
                         staticFilesTargetFolder.getCanonicalPath(), staticFilesCopyDestination.getCanonicalPath() ) );
-                org.codehaus.plexus.util.FileUtils.copyDirectoryStructure( staticFilesTargetFolder,
-                    staticFilesCopyDestination );
+                DirectorySynchronizer synchronizer = new DirectorySynchronizer( dependencyStager.getMode() );
+                synchronizer.setThreads( prePackageThreads );
+                synchronizer.synchronize( staticFilesTargetFolder, staticFilesCopyDestination );
+                getLog().info( String.format( "Static files synchronized: %s", synchronizer ) );
+                stagedFiles.add( staticFilesCopyDestination.getAbsoluteFile() );
             }
         }
         catch ( IOException e )
@@ -476,60 +1026,264 @@ public class PrqPrePackageMojo
         throws MojoFailureException
     {
         File folderToCopy = null;
-        boolean folderCopied = false;
 
         try
         {
-            String folderName = "DiskImages";
-            Iterator<File> iterator =
-                FileUtils.iterateFilesAndDirs( installshieldOutputDirectory,
-                    new NotFileFilter( TrueFileFilter.INSTANCE ),
-                    DirectoryFileFilter.INSTANCE );
+            List<File> found = findDiskImagesFolders();
+            if ( found.isEmpty() )
+            {
+                if ( failWhenNoInstallshieldFile )
+                {
+                    String message =
+                        String.format( "%s folder not found within the InstallShieldOutput", DISK_IMAGES );
+                    getLog().error( message );
+                    throw new MojoFailureException( message );
+                }
+                return;
+            }
+            if ( found.size() > 1 )
+            {
+                String message =
+                    String.format( "More than one %s folder found within the InstallShieldOutput, "
+                        + "the first one will be used and the rest ignored", DISK_IMAGES );
+                getLog().warn( message );
+            }
+
+            folderToCopy = found.get( 0 );
+            getLog().info( String.format( "Preparing %s for packaging", folderToCopy.getCanonicalPath() ) );
 
-            while ( iterator.hasNext() )
+            File diskImagesTarget = new File( prePackageInstallerSubFolder, DISK_IMAGES );
+
+            if ( directPackaging )
+            {
+                packagingManifest.addDirectory( archivePathOf( diskImagesTarget ), folderToCopy );
+            }
+            else
             {
-                folderToCopy = iterator.next();
-                if ( folderToCopy.getName().equalsIgnoreCase( folderName ) )
+                DirectorySynchronizer synchronizer = new DirectorySynchronizer( dependencyStager.getMode() );
+                synchronizer.synchronize( folderToCopy, diskImagesTarget );
+                getLog().info( String.format( "%s synchronized: %s", DISK_IMAGES, synchronizer ) );
+                stagedFiles.add( diskImagesTarget.getAbsoluteFile() );
+            }
+            packagedDiskImagesFolder = folderToCopy;
+        }
+        catch ( IOException e )
+        {
+            String message = String.format( "Failed to copy %s to %s", folderToCopy, prePackageInstallerSubFolder );
+            String shortMessage = "Failed to copy resources";
+            getLog().debug( message, e );
+            throw new MojoFailureException( e, shortMessage, message );
+        }
+    }
+
+    /**
+     * Finds DiskImages folders of the InstallShield output: diskImagesPath when it is given, otherwise the folders
+     * found by a walk limited to diskImagesSearchDepth levels. The walk doesn't enter DiskImages folders and folders
+     * which never hold them (intermediate files, logs and reports), and it stops at the second match, which is only
+     * needed for a warning.
+     * 
+     * @return at most two folders, the first one is packaged
+     * @throws IOException when the output folder can't be read
+     */
+    private List<File> findDiskImagesFolders()
+        throws IOException
+    {
+        final List<File> found = new ArrayList<File>();
+        if ( diskImagesPath != null )
+        {
+            if ( diskImagesPath.isDirectory() )
+            {
+                found.add( diskImagesPath );
+            }
+            else
+            {
+                getLog().warn( String.format( "diskImagesPath %s is not a folder", diskImagesPath ) );
+            }
+            return found;
+        }
+        if ( !installshieldOutputDirectory.isDirectory() )
+        {
+            return found;
+        }
+
+        Files.walkFileTree( installshieldOutputDirectory.toPath(), EnumSet.noneOf( FileVisitOption.class ),
+            Math.max( 1, diskImagesSearchDepth ), new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult preVisitDirectory( Path dir, BasicFileAttributes attrs )
+                {
+                    Path name = dir.getFileName();
+                    String folderName = name == null ? "" : name.toString();
+                    if ( folderName.equalsIgnoreCase( DISK_IMAGES ) )
+                    {
+                        found.add( dir.toFile() );
+                        return found.size() > 1 ? FileVisitResult.TERMINATE : FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if ( NOT_DISK_IMAGES_PARENTS.contains( folderName.toLowerCase( Locale.ROOT ) )
+                        && !dir.equals( installshieldOutputDirectory.toPath() ) )
+                    {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile( Path file, BasicFileAttributes attrs )
                 {
-                    getLog().info( String.format( "Preparing %s for packaging", folderToCopy.getCanonicalPath() ) );
+                    // folders at the depth limit are reported as files
+                    if ( attrs.isDirectory() && file.getFileName().toString().equalsIgnoreCase( DISK_IMAGES ) )
+                    {
+                        found.add( file.toFile() );
+                        return found.size() > 1 ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            } );
+        return found;
+    }
+
+    /**
+     * Copies and digests a single file, run by the worker pool. The file is not read when its checksum is found in a
+     * cache and it doesn't need to be copied.
+     */
+    private class DigestTask
+        implements Callable<FileDigest>
+    {
+        private final File source;
 
-                    File diskImagesTarget = new File( prePackageInstallerSubFolder, folderName );
+        private final File target;
 
-                    diskImagesTarget.mkdirs();
+        DigestTask( File source, File target )
+        {
+            this.source = source;
+            this.target = target;
+        }
+
+        public FileDigest call()
+            throws IOException
+        {
+            // taken before the file is read, so a file modified while it is digested is not cached
+            long size = source.length();
+            long lastModified = source.lastModified();
+            File copyTarget = target;
+            if ( target != null && dependencyStager.isStaged( source, target ) )
+            {
+                getLog().debug( String.format( "%s is up to date", target ) );
+                copyTarget = null;
+            }
+            else if ( target != null && dependencyStager.link( source, target ) )
+            {
+                getLog().debug( String.format( "%s linked to %s", target, source ) );
+                copyTarget = null;
+            }
 
-                    org.codehaus.plexus.util.FileUtils.copyDirectoryStructure( folderToCopy, diskImagesTarget );
-                    folderCopied = true;
-                    packagedDiskImagesFolder = folderToCopy;
-                    break;
+            for ( ChecksumCache checksumCache : checksumCaches )
+            {
+                FileDigest digest = checksumCache.get( source );
+                if ( digest != null && digestEngine.isCompleteFor( digest ) )
+                {
+                    getLog().debug( String.format( "Checksum of %s found in %s", source,
+                        checksumCache.getCacheFile() ) );
+                    if ( copyTarget != null )
+                    {
+                        dependencyStager.stage( source, copyTarget );
+                    }
+                    storeInChecksumCaches( digest, size, lastModified );
+                    return digest;
                 }
             }
 
-            if ( !folderCopied && failWhenNoInstallshieldFile )
+            FileDigest digest = FileDigester.copyAndDigest( source, copyTarget, digestEngine );
+            storeInChecksumCaches( digest, size, lastModified );
+            return digest;
+        }
+
+        private void storeInChecksumCaches( FileDigest digest, long size, long lastModified )
+            throws IOException
+        {
+            for ( ChecksumCache checksumCache : checksumCaches )
             {
-                String message = String.format( "%s folder not found within the InstallShieldOutput", folderName );
-                getLog().error( message );
-                throw new MojoFailureException( message );
+                checksumCache.put( source, digest, size, lastModified );
             }
+        }
+    }
+
+    /**
+     * Digests a file left packed in a prz file, streaming it from the archive, and extracts it to the pre-package
+     * folder unless it is up to date there.
+     */
+    private class EntryDigestTask
+        implements Callable<FileDigest>
+    {
+        private final ZipCentralDirectory archive;
+
+        private final String entryName;
+
+        private final File target;
+
+        EntryDigestTask( ZipCentralDirectory archive, String entryName, File target )
+        {
+            this.archive = archive;
+            this.entryName = entryName;
+            this.target = target;
+        }
 
-            while ( iterator.hasNext() )
+        public FileDigest call()
+            throws IOException
+        {
+            ZipDirectoryEntry entry = archive.getEntry( entryName );
+            if ( entry == null )
+            {
+                throw new FileNotFoundException( String.format( "%s is not in its prz file any more", entryName ) );
+            }
+            File copyTarget = target;
+            if ( target != null && target.isFile() && target.length() == entry.getSize()
+                && target.lastModified() == entry.getTime()
+                && ( dependencyStager.getMode() != StagingMode.COPY || !Files.isSymbolicLink( target.toPath() ) ) )
             {
-                folderToCopy = iterator.next();
-                if ( folderToCopy.getName().equalsIgnoreCase( folderName ) )
+                getLog().debug( String.format( "%s is up to date", target ) );
+                copyTarget = null;
+            }
+            else if ( target != null )
+            {
+                DirectorySynchronizer.unlinkBeforeWrite( target );
+            }
+
+            InputStream input = archive.getInputStream( entry );
+            try
+            {
+                FileDigest digest = FileDigester.copyAndDigest( input, copyTarget, digestEngine );
+                if ( copyTarget != null )
                 {
-                    String message =
-                        String.format( "More than one %s folder found within the InstallShieldOutput, "
-                            + "the first one will be used and the rest ignored", folderName );
-                    getLog().warn( message );
-                    break;
+                    copyTarget.setLastModified( entry.getTime() );
                 }
+                return digest;
+            }
+            finally
+            {
+                IOUtils.closeQuietly( input );
             }
         }
-        catch ( IOException e )
+    }
+
+    /**
+     * A file entry of the prerequisite waiting for its file to be processed.
+     */
+    private static class PendingFileEntry
+    {
+        private final File file;
+
+        /** New value of the LocalFile attribute. */
+        private String localFile;
+
+        private Future<FileDigest> digest;
+
+        /** Checksum and size of the file once it is processed. */
+        private FileDigest result;
+
+        PendingFileEntry( File file )
         {
-            String message = String.format( "Failed to copy %s to %s", folderToCopy, prePackageInstallerSubFolder );
-            String shortMessage = "Failed to copy resources";
-            getLog().debug( message, e );
-            throw new MojoFailureException( e, shortMessage, message );
+            this.file = file;
         }
     }
 
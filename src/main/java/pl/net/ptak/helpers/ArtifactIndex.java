@@ -0,0 +1,77 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.apache.maven.artifact.Artifact;
+
+/**
+ * Sorted index of artifacts by their identifier in form groupId:artifactId:type:version, as used by
+ * {@link Unzip#getWhat()}. Finding all artifacts whose identifier starts with a prefix costs a lookup in the index
+ * plus the number of matches, instead of a comparison with every artifact.
+ * 
+ * @author Tomasz Ptak
+ */
+public class ArtifactIndex
+{
+
+    /** Artifacts by identifier, several artifacts may share one when they differ in classifier or scope. */
+    private final TreeMap<String, List<Artifact>> artifacts = new TreeMap<String, List<Artifact>>();
+
+    /**
+     * Creates an index.
+     * 
+     * @param artifacts the artifacts to index
+     */
+    public ArtifactIndex( Collection<Artifact> artifacts )
+    {
+        for ( Artifact artifact : artifacts )
+        {
+            String id = artifact.toString();
+            List<Artifact> withId = this.artifacts.get( id );
+            if ( withId == null )
+            {
+                withId = new ArrayList<Artifact>( 1 );
+                this.artifacts.put( id, withId );
+            }
+            withId.add( artifact );
+        }
+    }
+
+    /**
+     * Finds artifacts whose identifier starts with a prefix.
+     * 
+     * @param prefix beginning of the identifier, eg. groupId:artifactId
+     * @return matching artifacts, sorted by identifier
+     */
+    public List<Artifact> findByPrefix( String prefix )
+    {
+        List<Artifact> matches = new ArrayList<Artifact>();
+        for ( List<Artifact> withId : artifacts.subMap( prefix, true, prefix + Character.MAX_VALUE, false ).values() )
+        {
+            matches.addAll( withId );
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,369 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A persistent cache of file checksums. Entries are keyed by canonical path, size and last modification date of a
+ * file, so a file which was modified is simply not found in the cache.<br>
+ * The cache holds at most maxEntries entries, the least recently used ones are evicted first. The file can be shared
+ * by several Maven processes: it is only read and written while a lock file next to it is locked, and entries used by
+ * this process are merged into what other processes stored in the meantime. The merged entries are written to a
+ * temporary file which then replaces the cache file, so an interrupted save never leaves a truncated cache behind.
+ * 
+ * @author Tomasz Ptak
+ */
+public class ChecksumCache
+{
+
+    /** Charset of the cache file. */
+    private static final String ENCODING = "UTF-8";
+
+    /** Initial capacity of the maps holding entries. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Load factor of the maps holding entries. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Suffix of the file locked while the cache file is read or replaced. */
+    private static final String LOCK_SUFFIX = ".lock";
+
+    /** Suffix of the temporary file written on save. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Separator of fields within a line of the cache file. */
+    private static final char SEPARATOR = '\t';
+
+    /** Separator of the md5 checksum and other digests within the checksum field. */
+    private static final char DIGEST_SEPARATOR = ';';
+
+    /**
+     * File locks are held by the whole JVM, so threads of a parallel build have to be serialized separately before
+     * they try to lock the same file.
+     */
+    private static final ConcurrentMap<String, Object> JVM_LOCKS = new ConcurrentHashMap<String, Object>();
+
+    /** The file holding the cache. */
+    private final File cacheFile;
+
+    /** Maximum number of entries kept in the cache. */
+    private final int maxEntries;
+
+    /** Checksums known to the cache, by key, in the order of use. */
+    private final Map<String, String> checksums =
+        new LinkedHashMap<String, String>( INITIAL_CAPACITY, LOAD_FACTOR, true );
+
+    /** Entries used or added by this process, in the order of use. These are merged into the file on save. */
+    private final Map<String, String> usedChecksums =
+        new LinkedHashMap<String, String>( INITIAL_CAPACITY, LOAD_FACTOR, true );
+
+    /**
+     * Creates an empty cache. Call {@link #load()} to read the stored entries.
+     * 
+     * @param cacheFile the file holding the cache
+     * @param maxEntries maximum number of entries kept in the cache
+     */
+    public ChecksumCache( File cacheFile, int maxEntries )
+    {
+        this.cacheFile = cacheFile;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Gets the file holding the cache.
+     * 
+     * @return the cache file
+     */
+    public File getCacheFile()
+    {
+        return cacheFile;
+    }
+
+    /**
+     * Reads the entries stored in the cache file, if it exists.
+     * 
+     * @throws IOException when the cache file can't be read
+     */
+    public synchronized void load()
+        throws IOException
+    {
+        checksums.clear();
+        if ( !cacheFile.exists() )
+        {
+            return;
+        }
+        synchronized ( jvmLock() )
+        {
+            FileLock lock = lock();
+            try
+            {
+                read( checksums );
+            }
+            finally
+            {
+                unlock( lock );
+            }
+        }
+    }
+
+    /**
+     * Looks up the checksum of a file.
+     * 
+     * @param file the file
+     * @return the digests and size of the file or null if the file is not in the cache or was changed since
+     * @throws IOException when canonical path of the file can't be resolved
+     */
+    public synchronized FileDigest get( File file )
+        throws IOException
+    {
+        String key = keyFor( file, file.length(), file.lastModified() );
+        String value = checksums.get( key );
+        if ( value == null )
+        {
+            return null;
+        }
+        usedChecksums.put( key, value );
+        String[] fields = value.split( String.valueOf( DIGEST_SEPARATOR ) );
+        Map<String, String> digests = new LinkedHashMap<String, String>();
+        for ( int i = 1; i < fields.length; i++ )
+        {
+            int separator = fields[i].indexOf( '=' );
+            if ( separator > 0 )
+            {
+                digests.put( fields[i].substring( 0, separator ), fields[i].substring( separator + 1 ) );
+            }
+        }
+        return new FileDigest( fields[0], file.length(), digests );
+    }
+
+    /**
+     * Stores the checksum and other digests of a file. The size and last modification date of the file have to be
+     * taken before it is read: nothing is stored if the file has changed since, as the checksum could be calculated
+     * from a mix of the old and the new content.
+     * 
+     * @param file the file
+     * @param digest the checksum, other digests and size of the file
+     * @param size size of the file before it was read
+     * @param lastModified last modification date of the file before it was read
+     * @throws IOException when canonical path of the file can't be resolved
+     */
+    public synchronized void put( File file, FileDigest digest, long size, long lastModified )
+        throws IOException
+    {
+        if ( digest.getSize() != size || file.length() != size || file.lastModified() != lastModified )
+        {
+            return;
+        }
+        String key = keyFor( file, size, lastModified );
+        StringBuilder value = new StringBuilder( digest.getMd5() );
+        for ( Map.Entry<String, String> other : digest.getDigests().entrySet() )
+        {
+            value.append( DIGEST_SEPARATOR ).append( other.getKey() ).append( '=' ).append( other.getValue() );
+        }
+        checksums.put( key, value.toString() );
+        usedChecksums.put( key, value.toString() );
+    }
+
+    /**
+     * Merges the entries used by this process into the cache file, evicting the least recently used entries above
+     * maxEntries.
+     * 
+     * @throws IOException when the cache file can't be read or written
+     */
+    public synchronized void save()
+        throws IOException
+    {
+        if ( usedChecksums.isEmpty() )
+        {
+            return;
+        }
+        File parent = cacheFile.getAbsoluteFile().getParentFile();
+        if ( !parent.exists() )
+        {
+            parent.mkdirs();
+        }
+        synchronized ( jvmLock() )
+        {
+            FileLock lock = lock();
+            try
+            {
+                Map<String, String> merged = new LinkedHashMap<String, String>( INITIAL_CAPACITY, LOAD_FACTOR, true );
+                read( merged );
+                for ( Map.Entry<String, String> used : usedChecksums.entrySet() )
+                {
+                    merged.remove( used.getKey() );
+                    merged.put( used.getKey(), used.getValue() );
+                }
+                Iterator<String> eldest = merged.keySet().iterator();
+                for ( int excess = merged.size() - maxEntries; excess > 0; excess-- )
+                {
+                    eldest.next();
+                    eldest.remove();
+                }
+                write( merged );
+                usedChecksums.clear();
+            }
+            finally
+            {
+                unlock( lock );
+            }
+        }
+    }
+
+    private String keyFor( File file, long size, long lastModified )
+        throws IOException
+    {
+        return new StringBuilder().append( size ).append( SEPARATOR ).append( lastModified )
+                                  .append( SEPARATOR ).append( file.getCanonicalPath() ).toString();
+    }
+
+    private void read( Map<String, String> target )
+        throws IOException
+    {
+        if ( !cacheFile.exists() )
+        {
+            return;
+        }
+        BufferedReader reader =
+            new BufferedReader( new InputStreamReader( new FileInputStream( cacheFile ), ENCODING ) );
+        try
+        {
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                int separator = line.indexOf( SEPARATOR );
+                if ( separator > 0 )
+                {
+                    target.put( line.substring( separator + 1 ), line.substring( 0, separator ) );
+                }
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly( reader );
+        }
+    }
+
+    /**
+     * Writes the entries to a temporary file in the folder of the cache file and moves it over the cache file.
+     */
+    private void write( Map<String, String> source )
+        throws IOException
+    {
+        File parent = cacheFile.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile( cacheFile.getName(), TEMP_SUFFIX, parent );
+        try
+        {
+            Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( temp ), ENCODING ) );
+            try
+            {
+                for ( Map.Entry<String, String> entry : source.entrySet() )
+                {
+                    writer.write( entry.getValue() );
+                    writer.write( SEPARATOR );
+                    writer.write( entry.getKey() );
+                    writer.write( '\n' );
+                }
+                writer.close();
+            }
+            finally
+            {
+                IOUtils.closeQuietly( writer );
+            }
+            try
+            {
+                Files.move( temp.toPath(), cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING );
+            }
+            catch ( AtomicMoveNotSupportedException e )
+            {
+                Files.move( temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            }
+        }
+        finally
+        {
+            FileUtils.deleteQuietly( temp );
+        }
+    }
+
+    private Object jvmLock()
+        throws IOException
+    {
+        String path = cacheFile.getCanonicalPath();
+        Object lock = new Object();
+        Object existing = JVM_LOCKS.putIfAbsent( path, lock );
+        return existing == null ? lock : existing;
+    }
+
+    private FileLock lock()
+        throws IOException
+    {
+        File parent = cacheFile.getAbsoluteFile().getParentFile();
+        if ( !parent.exists() )
+        {
+            parent.mkdirs();
+        }
+        RandomAccessFile file = new RandomAccessFile( cacheFile.getPath() + LOCK_SUFFIX, "rw" );
+        try
+        {
+            return file.getChannel().lock();
+        }
+        catch ( IOException e )
+        {
+            file.close();
+            throw e;
+        }
+    }
+
+    private void unlock( FileLock lock )
+        throws IOException
+    {
+        try
+        {
+            lock.release();
+        }
+        finally
+        {
+            lock.channel().close();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Decides how entries of an archive are compressed. Entries are deflated with the given level, unless they match one
+ * of the stored extensions or patterns, or - in auto mode - a sample of their content doesn't compress well. Such
+ * entries are stored without compression, as deflating already compressed data costs time and saves nothing.
+ * 
+ * @author Tomasz Ptak
+ */
+public class CompressionPolicy
+{
+
+    /** Size of the content sample checked in auto mode. */
+    public static final int SAMPLE_SIZE = 64 * 1024;
+
+    /** Default ratio below which sampled content is considered worth deflating. */
+    public static final double DEFAULT_AUTO_RATIO = 0.9;
+
+    /** Deflate level. */
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    /** Lower case extensions, without the dot, of entries to store. */
+    private final List<String> storedExtensions = new ArrayList<String>();
+
+    /** Ant-style patterns of entry paths to store. */
+    private final List<String> storedPatterns = new ArrayList<String>();
+
+    /** Should content be sampled to decide whether to store an entry. */
+    private boolean auto;
+
+    /** In auto mode, entries whose sample doesn't compress below this ratio are stored. */
+    private double autoRatio = DEFAULT_AUTO_RATIO;
+
+    /**
+     * Gets the deflate level.
+     * 
+     * @return the level, -1 for the default
+     */
+    public int getLevel()
+    {
+        return level;
+    }
+
+    /**
+     * Sets the deflate level.
+     * 
+     * @param level 0-9, or -1 for the default
+     */
+    public void setLevel( int level )
+    {
+        if ( level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION )
+        {
+            throw new IllegalArgumentException( String.format( "Invalid compression level %d", level ) );
+        }
+        this.level = level;
+    }
+
+    /**
+     * Adds extensions of entries to store. Case is ignored, a leading dot is optional.
+     * 
+     * @param extensions the extensions, null is ignored
+     */
+    public void addStoredExtensions( List<String> extensions )
+    {
+        if ( extensions == null )
+        {
+            return;
+        }
+        for ( String extension : extensions )
+        {
+            String normalized = extension.trim().toLowerCase( Locale.ENGLISH );
+            if ( normalized.startsWith( "." ) )
+            {
+                normalized = normalized.substring( 1 );
+            }
+            if ( normalized.length() > 0 )
+            {
+                storedExtensions.add( normalized );
+            }
+        }
+    }
+
+    /**
+     * Adds Ant-style patterns, eg. **&#47;*.cab or DiskImages/**, of entry paths to store. Case is ignored.
+     * 
+     * @param patterns the patterns, null is ignored
+     */
+    public void addStoredPatterns( List<String> patterns )
+    {
+        if ( patterns == null )
+        {
+            return;
+        }
+        for ( String pattern : patterns )
+        {
+            storedPatterns.add( pattern.trim().replace( '\\', '/' ) );
+        }
+    }
+
+    /**
+     * Turns sampling of the content on or off.
+     * 
+     * @param auto should content be sampled
+     * @param ratio entries whose sample doesn't compress below this ratio of its size are stored
+     */
+    public void setAuto( boolean auto, double ratio )
+    {
+        this.auto = auto;
+        this.autoRatio = ratio;
+    }
+
+    /**
+     * Checks if the content needs to be sampled before deciding about an entry.
+     * 
+     * @param path path of the entry within the archive
+     * @return true if {@link #isPoorlyCompressible(byte[], int)} should be consulted
+     */
+    public boolean needsSample( String path )
+    {
+        return auto && !isStoredByRule( path );
+    }
+
+    /**
+     * Checks if the entry is to be stored because of its extension or path.
+     * 
+     * @param path path of the entry within the archive
+     * @return true if the entry is to be stored
+     */
+    public boolean isStoredByRule( String path )
+    {
+        String lowerCasePath = path.toLowerCase( Locale.ENGLISH );
+        for ( String extension : storedExtensions )
+        {
+            if ( lowerCasePath.endsWith( "." + extension ) )
+            {
+                return true;
+            }
+        }
+        for ( String pattern : storedPatterns )
+        {
+            if ( SelectorUtils.matchPath( pattern, path, "/", false ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a sample of content compresses poorly. Sampling is done with the fastest deflate level, so the check
+     * is cheap compared to compressing the whole entry.
+     * 
+     * @param sample the beginning of the content
+     * @param length number of bytes in the sample
+     * @return true if the content is not worth deflating
+     */
+    public boolean isPoorlyCompressible( byte[] sample, int length )
+    {
+        if ( length <= 0 )
+        {
+            return false;
+        }
+        Deflater deflater = new Deflater( Deflater.BEST_SPEED, true );
+        try
+        {
+            deflater.setInput( sample, 0, length );
+            deflater.finish();
+            byte[] output = new byte[SAMPLE_SIZE];
+            long compressed = 0;
+            while ( !deflater.finished() )
+            {
+                compressed += deflater.deflate( output );
+            }
+            return compressed >= length * autoRatio;
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Describes the policy.
+     * 
+     * @return all settings of the policy
+     */
+    @Override
+    public String toString()
+    {
+        return String.format( "level=%d, storedExtensions=%s, storedPatterns=%s, auto=%b, autoRatio=%s", level,
+            storedExtensions, storedPatterns, auto, autoRatio );
+    }
+}
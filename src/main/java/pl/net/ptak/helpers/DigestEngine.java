@@ -0,0 +1,154 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * The set of digests {@link FileDigester} calculates while reading a file once: always md5, for the CheckSum of prq
+ * files, and optionally other algorithms, eg. SHA-256 for an integrity manifest. Any {@link MessageDigest} algorithm
+ * of an installed security provider can be used.
+ * 
+ * @author Tomasz Ptak
+ */
+public final class DigestEngine
+{
+
+    /** Algorithm of the prq CheckSum, always calculated. */
+    public static final String MD5 = "MD5";
+
+    /** Calculates md5 only. */
+    public static final DigestEngine MD5_ONLY = new DigestEngine();
+
+    /** Names of the algorithms, md5 first. */
+    private final List<String> algorithms;
+
+    /**
+     * Creates an engine calculating md5 and the given digests.
+     * 
+     * @param additionalAlgorithms names of other algorithms, eg. SHA-256
+     * @throws IllegalArgumentException when an algorithm is not available
+     */
+    public DigestEngine( String... additionalAlgorithms )
+    {
+        List<String> names = new ArrayList<String>();
+        names.add( MD5 );
+        for ( String algorithm : additionalAlgorithms )
+        {
+            String name = algorithm.trim().toUpperCase( Locale.ROOT );
+            if ( name.length() == 0 || names.contains( name ) )
+            {
+                continue;
+            }
+            try
+            {
+                MessageDigest.getInstance( name );
+            }
+            catch ( NoSuchAlgorithmException e )
+            {
+                throw new IllegalArgumentException( String.format( "Digest algorithm %s is not available", algorithm ),
+                    e );
+            }
+            names.add( name );
+        }
+        algorithms = Collections.unmodifiableList( names );
+    }
+
+    /**
+     * Gets the algorithms.
+     * 
+     * @return names of the algorithms, md5 first
+     */
+    public List<String> getAlgorithms()
+    {
+        return algorithms;
+    }
+
+    /**
+     * Checks whether a digest, eg. one found in a checksum cache, holds all digests of this engine.
+     * 
+     * @param digest the digest
+     * @return true if nothing needs to be calculated
+     */
+    public boolean isCompleteFor( FileDigest digest )
+    {
+        for ( String algorithm : algorithms )
+        {
+            if ( digest.getDigest( algorithm ) == null )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates one digest per algorithm for reading a file.
+     * 
+     * @return the digests in the order of the algorithms
+     * @throws IOException when an algorithm is not available any more
+     */
+    MessageDigest[] newDigests()
+        throws IOException
+    {
+        MessageDigest[] digests = new MessageDigest[algorithms.size()];
+        for ( int i = 0; i < digests.length; i++ )
+        {
+            try
+            {
+                digests[i] = MessageDigest.getInstance( algorithms.get( i ) );
+            }
+            catch ( NoSuchAlgorithmException e )
+            {
+                throw new IOException( String.format( "%s algorithm is not available: %s", algorithms.get( i ),
+                    e.getMessage() ) );
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * Completes the digests of a file.
+     * 
+     * @param digests the digests created by {@link #newDigests()}, fed with the whole file
+     * @param size the number of bytes read
+     * @return the result
+     */
+    FileDigest complete( MessageDigest[] digests, long size )
+    {
+        String md5 = Hex.encodeHexString( digests[0].digest() ).toUpperCase( Locale.ROOT );
+        Map<String, String> others = new LinkedHashMap<String, String>();
+        for ( int i = 1; i < digests.length; i++ )
+        {
+            others.put( algorithms.get( i ), Hex.encodeHexString( digests[i].digest() ) );
+        }
+        return new FileDigest( md5, size, others );
+    }
+}
@@ -0,0 +1,520 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Synchronizes a target directory with a source directory. Only files which are new or differ in size or last
+ * modification date are copied, files which no longer exist in the source are removed from the target.<br>
+ * Depending on the {@link StagingMode}, files may be linked instead of copied. A synchronizer may be used by several
+ * threads at a time.<br>
+ * Both trees are walked once by the calling thread, which also creates directories and removes stale files; files
+ * which need to be placed in the target may be copied by a pool of threads.
+ * 
+ * @author Tomasz Ptak
+ */
+public class DirectorySynchronizer
+{
+
+    /** How files are placed in the target directory. */
+    private final StagingMode mode;
+
+    /** Number of files copied so far. */
+    private final AtomicInteger copiedFiles = new AtomicInteger();
+
+    /** Number of files linked so far. */
+    private final AtomicInteger linkedFiles = new AtomicInteger();
+
+    /** Number of files found up to date so far. */
+    private final AtomicInteger unchangedFiles = new AtomicInteger();
+
+    /** Number of files and directories deleted so far. */
+    private final AtomicInteger deletedFiles = new AtomicInteger();
+
+    /** Number of threads placing files when synchronizing directories. */
+    private int threads = 1;
+
+    /**
+     * Creates a synchronizer which copies files.
+     */
+    public DirectorySynchronizer()
+    {
+        this( StagingMode.COPY );
+    }
+
+    /**
+     * Creates a synchronizer.
+     * 
+     * @param mode how files are placed in the target directory
+     */
+    public DirectorySynchronizer( StagingMode mode )
+    {
+        this.mode = mode;
+    }
+
+    /**
+     * Gets the staging mode.
+     * 
+     * @return how files are placed in the target directory
+     */
+    public StagingMode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * Sets the number of threads placing files in the target when directories are synchronized or merged.
+     * 
+     * @param threads number of threads, 1 to place files in the calling thread
+     */
+    public void setThreads( int threads )
+    {
+        this.threads = Math.max( 1, threads );
+    }
+
+    /**
+     * Checks if a copy of a file is up to date, that is if it exists and has the same size and last modification date
+     * as the source.
+     * 
+     * @param source the original file
+     * @param target the copy
+     * @return true if the copy doesn't need to be refreshed
+     */
+    public static boolean isUpToDate( File source, File target )
+    {
+        return target.isFile() && target.length() == source.length()
+            && target.lastModified() == source.lastModified();
+    }
+
+    /**
+     * Checks if a file is already placed in the target location in a way the staging mode accepts. In copy mode
+     * neither a symbolic link nor a hard link to the source is accepted, even when it is up to date, so a target left
+     * by an earlier linking run gets replaced by a copy instead of sharing its content with the source.
+     * 
+     * @param source the original file
+     * @param target the location of the staged file
+     * @return true if the target doesn't need to be staged again
+     */
+    public boolean isStaged( File source, File target )
+    {
+        if ( !isUpToDate( source, target ) )
+        {
+            return false;
+        }
+        return mode != StagingMode.COPY || !Files.isSymbolicLink( target.toPath() ) && !isSameFile( source, target );
+    }
+
+    private static boolean isSameFile( File source, File target )
+    {
+        try
+        {
+            return Files.isSameFile( source.toPath(), target.toPath() );
+        }
+        catch ( IOException e )
+        {
+            // can't tell, so stage the file again
+            return true;
+        }
+    }
+
+    /**
+     * Makes the target directory a copy of the source directory.
+     * 
+     * @param source the directory to copy
+     * @param target the directory to update
+     * @throws IOException when a file can't be copied or deleted
+     */
+    public void synchronize( File source, File target )
+        throws IOException
+    {
+        synchronize( source, target, true );
+    }
+
+    /**
+     * Adds the content of the source directory to the target directory. Files which are new or differ are placed in
+     * the target, other files of the target are left alone.
+     * 
+     * @param source the directory to copy
+     * @param target the directory to update
+     * @throws IOException when a file can't be copied
+     */
+    public void merge( File source, File target )
+        throws IOException
+    {
+        synchronize( source, target, false );
+    }
+
+    private void synchronize( File source, File target, boolean removeOthers )
+        throws IOException
+    {
+        ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool( threads ) : null;
+        try
+        {
+            List<Future<Void>> placements = new ArrayList<Future<Void>>();
+            synchronize( source, target, removeOthers, executor, placements );
+            for ( Future<Void> placement : placements )
+            {
+                await( placement );
+            }
+        }
+        finally
+        {
+            if ( executor != null )
+            {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private void synchronize( File source, File target, boolean removeOthers, ExecutorService executor,
+                              List<Future<Void>> placements )
+        throws IOException
+    {
+        if ( target.isFile() )
+        {
+            delete( target );
+        }
+        if ( !target.exists() && !target.mkdirs() )
+        {
+            throw new IOException( String.format( "Failed to create directory %s", target ) );
+        }
+
+        File[] sourceFiles = source.listFiles();
+        if ( sourceFiles == null )
+        {
+            throw new IOException( String.format( "Failed to list files of %s", source ) );
+        }
+        for ( File sourceFile : sourceFiles )
+        {
+            File targetFile = new File( target, sourceFile.getName() );
+            if ( sourceFile.isDirectory() )
+            {
+                synchronize( sourceFile, targetFile, removeOthers, executor, placements );
+            }
+            else if ( isStaged( sourceFile, targetFile ) )
+            {
+                unchangedFiles.incrementAndGet();
+            }
+            else if ( executor == null )
+            {
+                stage( sourceFile, targetFile );
+            }
+            else
+            {
+                placements.add( executor.submit( new Placement( sourceFile, targetFile ) ) );
+            }
+        }
+        if ( !removeOthers )
+        {
+            return;
+        }
+
+        File[] targetFiles = target.listFiles();
+        if ( targetFiles == null )
+        {
+            throw new IOException( String.format( "Failed to list files of %s", target ) );
+        }
+        for ( File targetFile : targetFiles )
+        {
+            if ( !new File( source, targetFile.getName() ).exists() )
+            {
+                delete( targetFile );
+            }
+        }
+    }
+
+    private void await( Future<Void> placement )
+        throws IOException
+    {
+        try
+        {
+            placement.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while synchronizing directories", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException( "Failed to place a file", e.getCause() );
+        }
+    }
+
+    /**
+     * Places a single file in the target location according to the staging mode, replacing the target. The target is
+     * removed first, so other links to it are never written through.
+     * 
+     * @param source the file to stage
+     * @param target the location of the staged file
+     * @throws IOException when the file can't be linked nor copied
+     */
+    public void stage( File source, File target )
+        throws IOException
+    {
+        if ( !link( source, target ) )
+        {
+            FileUtils.copyFile( source, target, true );
+            copiedFiles.incrementAndGet();
+        }
+    }
+
+    /**
+     * Links the target location to a file if the staging mode allows it, replacing the target. Nothing is done when
+     * the file can't be linked, eg. because it is on a different file system than the target.
+     * 
+     * @param source the file to link
+     * @param target the location of the link
+     * @return true if the link was created, false if the file has to be copied
+     * @throws IOException when the existing target can't be removed
+     */
+    public boolean link( File source, File target )
+        throws IOException
+    {
+        if ( Files.exists( target.toPath(), LinkOption.NOFOLLOW_LINKS ) )
+        {
+            deleteEntry( target );
+        }
+        if ( mode == StagingMode.COPY )
+        {
+            return false;
+        }
+
+        File parent = target.getAbsoluteFile().getParentFile();
+        if ( !parent.exists() && !parent.mkdirs() )
+        {
+            throw new IOException( String.format( "Failed to create directory %s", parent ) );
+        }
+
+        Path sourcePath = source.toPath().toAbsolutePath();
+        Path targetPath = target.toPath();
+        try
+        {
+            if ( mode == StagingMode.HARDLINK )
+            {
+                if ( !sameFileStore( sourcePath, parent.toPath() ) )
+                {
+                    return false;
+                }
+                Files.createLink( targetPath, sourcePath );
+            }
+            else
+            {
+                Files.createSymbolicLink( targetPath, sourcePath );
+            }
+        }
+        catch ( IOException e )
+        {
+            return false;
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            return false;
+        }
+        linkedFiles.incrementAndGet();
+        return true;
+    }
+
+    private boolean sameFileStore( Path source, Path targetDirectory )
+        throws IOException
+    {
+        FileStore sourceStore = Files.getFileStore( source );
+        FileStore targetStore = Files.getFileStore( targetDirectory );
+        return sourceStore.equals( targetStore );
+    }
+
+    /**
+     * Removes everything below the root directory which is not kept. A kept directory is preserved with all its
+     * content, directories left empty are removed.
+     * 
+     * @param root the directory to clean
+     * @param keep files and directories to preserve
+     * @throws IOException when a file can't be deleted
+     */
+    public void removeStale( File root, Set<File> keep )
+        throws IOException
+    {
+        File[] files = root.listFiles();
+        if ( files == null )
+        {
+            return;
+        }
+        for ( File file : files )
+        {
+            if ( keep.contains( file.getAbsoluteFile() ) )
+            {
+                continue;
+            }
+            if ( file.isDirectory() )
+            {
+                removeStale( file, keep );
+                String[] left = file.list();
+                if ( left != null && left.length == 0 )
+                {
+                    delete( file );
+                }
+            }
+            else
+            {
+                delete( file );
+            }
+        }
+    }
+
+    private void delete( File file )
+        throws IOException
+    {
+        deleteEntry( file );
+        deletedFiles.incrementAndGet();
+    }
+
+    /**
+     * Removes a file before it is written in place. A staged file may be a link to a file shared with other modules,
+     * eg. in the extraction cache or the local repository, and writing through the link would change the shared file.
+     * Directories are left alone.
+     * 
+     * @param target the file about to be written
+     * @throws IOException when the file can't be removed
+     */
+    public static void unlinkBeforeWrite( File target )
+        throws IOException
+    {
+        if ( !Files.isDirectory( target.toPath(), LinkOption.NOFOLLOW_LINKS ) )
+        {
+            Files.deleteIfExists( target.toPath() );
+        }
+    }
+
+    /**
+     * Deletes a file or a directory with its content. Links are deleted, never followed.
+     * 
+     * @param file what to delete
+     * @throws IOException when deletion fails
+     */
+    private static void deleteEntry( File file )
+        throws IOException
+    {
+        if ( Files.isDirectory( file.toPath(), LinkOption.NOFOLLOW_LINKS ) )
+        {
+            FileUtils.deleteDirectory( file );
+        }
+        else
+        {
+            Files.deleteIfExists( file.toPath() );
+        }
+    }
+
+    /**
+     * Gets the number of files copied so far.
+     * 
+     * @return the number of files copied
+     */
+    public int getCopiedFiles()
+    {
+        return copiedFiles.get();
+    }
+
+    /**
+     * Gets the number of files linked so far.
+     * 
+     * @return the number of files linked
+     */
+    public int getLinkedFiles()
+    {
+        return linkedFiles.get();
+    }
+
+    /**
+     * Gets the number of files found up to date so far.
+     * 
+     * @return the number of files which didn't need copying
+     */
+    public int getUnchangedFiles()
+    {
+        return unchangedFiles.get();
+    }
+
+    /**
+     * Gets the number of files and directories deleted so far.
+     * 
+     * @return the number of deleted files and directories
+     */
+    public int getDeletedFiles()
+    {
+        return deletedFiles.get();
+    }
+
+    /**
+     * Describes what has been done so far.
+     * 
+     * @return a summary of copied, linked, unchanged and deleted files
+     */
+    @Override
+    public String toString()
+    {
+        return String.format( "%d copied, %d linked, %d unchanged, %d deleted", copiedFiles.get(), linkedFiles.get(),
+            unchangedFiles.get(), deletedFiles.get() );
+    }
+
+    /**
+     * Places a file in the target on a thread of the pool.
+     */
+    private class Placement
+        implements Callable<Void>
+    {
+        private final File source;
+
+        private final File target;
+
+        Placement( File source, File target )
+        {
+            this.source = source;
+            this.target = target;
+        }
+
+        public Void call()
+            throws IOException
+        {
+            stage( source, target );
+            return null;
+        }
+    }
+}
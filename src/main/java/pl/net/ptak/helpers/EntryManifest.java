@@ -0,0 +1,156 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Files of a folder which are left packed in archives, by path within the folder. prepare-dependencies writes it for
+ * prz files which are passed through instead of being extracted, prq-prepackage reads it to find files referenced by
+ * the prerequisite which are not on disk. A file is stored in its archive under the same path as within the folder.
+ * 
+ * @author Tomasz Ptak
+ */
+public class EntryManifest
+{
+
+    /** Archives by path of the entry within the folder, paths use forward slashes. */
+    private final SortedMap<String, File> archives = new TreeMap<String, File>();
+
+    /**
+     * Adds an entry.
+     * 
+     * @param path path of the entry within the folder and the archive
+     * @param archive the archive holding the entry
+     */
+    public void put( String path, File archive )
+    {
+        archives.put( path, archive );
+    }
+
+    /**
+     * Finds the archive holding a file of the folder.
+     * 
+     * @param directory the folder described by the manifest
+     * @param file the file
+     * @return path of the entry, or null if the file is not held by any archive
+     * @throws IOException when the canonical path of the file can't be resolved
+     */
+    public String pathOf( File directory, File file )
+        throws IOException
+    {
+        String directoryPath = directory.getCanonicalPath() + File.separator;
+        String filePath = file.getCanonicalPath();
+        if ( !filePath.startsWith( directoryPath ) )
+        {
+            return null;
+        }
+        String path = filePath.substring( directoryPath.length() ).replace( File.separatorChar, '/' );
+        return archives.containsKey( path ) ? path : null;
+    }
+
+    /**
+     * Gets the archive holding an entry.
+     * 
+     * @param path path of the entry
+     * @return the archive or null if no archive holds the entry
+     */
+    public File getArchive( String path )
+    {
+        return archives.get( path );
+    }
+
+    /**
+     * Gets all entries.
+     * 
+     * @return archives by path of the entry
+     */
+    public Map<String, File> getEntries()
+    {
+        return Collections.unmodifiableMap( archives );
+    }
+
+    /**
+     * Reads a manifest.
+     * 
+     * @param file the manifest file
+     * @return the manifest
+     * @throws IOException when the file can't be read
+     */
+    public static EntryManifest load( File file )
+        throws IOException
+    {
+        Properties properties = new Properties();
+        InputStream input = new FileInputStream( file );
+        try
+        {
+            properties.load( input );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( input );
+        }
+        EntryManifest manifest = new EntryManifest();
+        for ( String path : properties.stringPropertyNames() )
+        {
+            manifest.put( path, new File( properties.getProperty( path ) ) );
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest.
+     * 
+     * @param file the manifest file
+     * @throws IOException when the file can't be written
+     */
+    public void store( File file )
+        throws IOException
+    {
+        Properties properties = new Properties();
+        for ( Map.Entry<String, File> entry : archives.entrySet() )
+        {
+            properties.setProperty( entry.getKey(), entry.getValue().getAbsolutePath() );
+        }
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        OutputStream output = new FileOutputStream( file );
+        try
+        {
+            properties.store( output, "Entries passed through from archives" );
+            output.close();
+        }
+        finally
+        {
+            IOUtils.closeQuietly( output );
+        }
+    }
+}
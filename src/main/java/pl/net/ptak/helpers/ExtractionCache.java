@@ -0,0 +1,428 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Cache of extracted archives shared by modules and builds, eg. kept next to the local repository.<br>
+ * An archive is extracted into the cache once per name, content (MD5 of the archive) and selection of files, and then
+ * placed in the target folders of modules by a {@link DirectorySynchronizer}, which hard links files when the cache and
+ * the module are on the same file system. Files placed this way must not be modified in place. The MD5 of archives is
+ * kept in a {@link ChecksumCache} of the cache by path, size and modification date, so an archive is only read to look
+ * it up when it is new or changed.<br>
+ * The cache is bounded by size: when it grows over the limit, the least recently used extractions are removed.
+ * Every extraction is made and placed under a lock of its own, so different archives are extracted in parallel, also
+ * by several Maven processes at a time. Eviction runs under a lock of the whole cache and skips extractions in use.
+ * Evicted extractions leave no lock files behind: they are deleted under the lock of the whole cache, under which
+ * extractions are locked too.
+ * 
+ * @author Tomasz Ptak
+ */
+public class ExtractionCache
+{
+
+    /** Name of the file marking a complete extraction, holding its size. */
+    private static final String COMPLETE_MARKER = ".complete";
+
+    /** Name of the folder holding extracted files within an extraction. */
+    private static final String CONTENT = "content";
+
+    /** Name of the lock file of the cache, held while evicting. */
+    private static final String LOCK_FILE = ".lock";
+
+    /** Suffix of lock files of extractions, next to their folders. */
+    private static final String LOCK_SUFFIX = ".lock";
+
+    /** Name of the file holding the MD5 of archives. */
+    private static final String CHECKSUMS_FILE = ".checksums";
+
+    /** Maximum number of archives whose MD5 is kept. */
+    private static final int MAX_CHECKSUMS = 10000;
+
+    /** Prefix of folders of extractions in progress. */
+    private static final String TEMPORARY_PREFIX = ".tmp-";
+
+    /** Number of characters of digests used in folder names. */
+    private static final int KEY_LENGTH = 16;
+
+    /**
+     * File locks are held by the whole JVM, so threads of a parallel build have to be serialized separately before
+     * they try to lock the same file.
+     */
+    private static final ConcurrentMap<String, ReentrantLock> JVM_LOCKS =
+        new ConcurrentHashMap<String, ReentrantLock>();
+
+    /** Root folder of the cache. */
+    private final File root;
+
+    /** Maximum size of all extractions, in bytes. */
+    private final long maxSize;
+
+    /** MD5 of archives, loaded on first use. */
+    private ChecksumCache checksums;
+
+    /**
+     * Extracts an archive into a folder of the cache.
+     */
+    public interface Extractor
+    {
+        /**
+         * Extracts the archive.
+         * 
+         * @param archive the archive
+         * @param directory an empty folder to extract to
+         * @throws IOException when the archive can't be extracted
+         */
+        void extract( File archive, File directory )
+            throws IOException;
+    }
+
+    /**
+     * Creates a cache.
+     * 
+     * @param root root folder of the cache
+     * @param maxSize maximum size of all extractions in bytes
+     */
+    public ExtractionCache( File root, long maxSize )
+    {
+        this.root = root.getAbsoluteFile();
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Places the content of an archive in a folder, extracting it into the cache first if it isn't there yet. Other
+     * files in the folder are left alone.
+     * 
+     * @param archive the archive
+     * @param selectors description of the selection of files extracted from the archive
+     * @param extractor extracts the archive when it isn't cached
+     * @param destDirectory the folder to place the content in
+     * @param stager places cached files in destDirectory
+     * @return true when the archive was found in the cache, false when it was extracted
+     * @throws IOException when the archive can't be extracted or its content placed in destDirectory
+     */
+    public boolean materialize( File archive, String selectors, Extractor extractor, File destDirectory,
+                                DirectorySynchronizer stager )
+        throws IOException
+    {
+        String md5 = md5Of( archive ).toLowerCase( Locale.ROOT );
+        String key =
+            String.format( "%s-%s", md5.substring( 0, KEY_LENGTH ),
+                DigestUtils.md5Hex( selectors ).substring( 0, KEY_LENGTH ) );
+        File entry = new File( new File( root, archive.getName() ), key );
+        boolean cached;
+        EntryLock lock = lockEntry( entry );
+        try
+        {
+            File marker = new File( entry, COMPLETE_MARKER );
+            cached = marker.isFile();
+            if ( cached )
+            {
+                marker.setLastModified( System.currentTimeMillis() );
+            }
+            else
+            {
+                extract( archive, extractor, entry );
+            }
+            stager.merge( new File( entry, CONTENT ), destDirectory );
+        }
+        finally
+        {
+            lock.release();
+        }
+        if ( !cached )
+        {
+            evict( entry );
+        }
+        return cached;
+    }
+
+    /**
+     * Gets the MD5 of an archive, reading the archive only when its path, size and modification date aren't known to
+     * the cache yet.
+     * 
+     * @param archive the archive
+     * @return MD5 of the archive
+     * @throws IOException when the archive can't be read or the checksums of the cache can't be read or written
+     */
+    public synchronized String md5Of( File archive )
+        throws IOException
+    {
+        if ( checksums == null )
+        {
+            checksums = new ChecksumCache( new File( root, CHECKSUMS_FILE ), MAX_CHECKSUMS );
+            checksums.load();
+        }
+        FileDigest digest = checksums.get( archive );
+        if ( digest == null )
+        {
+            long size = archive.length();
+            long lastModified = archive.lastModified();
+            digest = FileDigester.digest( archive );
+            checksums.put( archive, digest, size, lastModified );
+            checksums.save();
+        }
+        return digest.getMd5();
+    }
+
+    /**
+     * Locks an extraction. Its lock file is opened and locked under the lock of the whole cache, so an eviction can't
+     * delete it in between. When the extraction is locked by someone else, this waits for it without holding the lock
+     * of the whole cache and tries again.
+     */
+    private EntryLock lockEntry( File entry )
+        throws IOException
+    {
+        File lockFile = lockFileOf( entry );
+        while ( true )
+        {
+            EntryLock cacheLock = EntryLock.acquire( new File( root, LOCK_FILE ), true );
+            EntryLock lock;
+            try
+            {
+                lock = EntryLock.acquire( lockFile, false );
+            }
+            finally
+            {
+                cacheLock.release();
+            }
+            if ( lock != null )
+            {
+                return lock;
+            }
+            EntryLock.acquire( lockFile, true ).release();
+        }
+    }
+
+    private void extract( File archive, Extractor extractor, File entry )
+        throws IOException
+    {
+        FileUtils.deleteDirectory( entry );
+        File temporary = new File( root, TEMPORARY_PREFIX + entry.getParentFile().getName() + "-" + entry.getName() );
+        FileUtils.deleteDirectory( temporary );
+        if ( !temporary.mkdirs() )
+        {
+            throw new IOException( String.format( "Failed to create directory %s", temporary ) );
+        }
+        try
+        {
+            extractor.extract( archive, temporary );
+            long size = FileUtils.sizeOfDirectory( temporary );
+            FileUtils.moveDirectory( temporary, new File( entry, CONTENT ) );
+            FileUtils.writeStringToFile( new File( entry, COMPLETE_MARKER ), String.valueOf( size ), "UTF-8" );
+        }
+        finally
+        {
+            FileUtils.deleteQuietly( temporary );
+        }
+    }
+
+    /**
+     * Removes the least recently used extractions until the cache fits its size, never the one just used nor those
+     * locked by other threads or processes.
+     */
+    private void evict( File used )
+        throws IOException
+    {
+        EntryLock lock = EntryLock.acquire( new File( root, LOCK_FILE ), true );
+        try
+        {
+            evictUnlocked( used );
+        }
+        finally
+        {
+            lock.release();
+        }
+    }
+
+    private void evictUnlocked( File used )
+        throws IOException
+    {
+        List<File> markers = new ArrayList<File>();
+        long size = 0;
+        File[] archives = root.listFiles();
+        for ( File archive : archives == null ? new File[0] : archives )
+        {
+            if ( archive.getName().startsWith( "." ) )
+            {
+                continue;
+            }
+            File[] entries = archive.listFiles();
+            for ( File entry : entries == null ? new File[0] : entries )
+            {
+                File marker = new File( entry, COMPLETE_MARKER );
+                if ( marker.isFile() )
+                {
+                    markers.add( marker );
+                    size += sizeOf( marker );
+                }
+            }
+        }
+
+        Collections.sort( markers, new Comparator<File>()
+        {
+            public int compare( File first, File second )
+            {
+                return Long.valueOf( first.lastModified() ).compareTo( second.lastModified() );
+            }
+        } );
+        for ( File marker : markers )
+        {
+            if ( size <= maxSize )
+            {
+                break;
+            }
+            File entry = marker.getParentFile();
+            if ( entry.equals( used ) )
+            {
+                continue;
+            }
+            File lockFile = lockFileOf( entry );
+            EntryLock lock = EntryLock.acquire( lockFile, false );
+            if ( lock == null )
+            {
+                continue;
+            }
+            try
+            {
+                size -= sizeOf( marker );
+                // the marker goes first, so a partially removed extraction is never taken for a complete one
+                FileUtils.forceDelete( marker );
+                FileUtils.deleteDirectory( entry );
+            }
+            finally
+            {
+                lock.release();
+            }
+            // nobody can lock it anew while the cache is locked
+            FileUtils.deleteQuietly( lockFile );
+        }
+    }
+
+    private long sizeOf( File marker )
+    {
+        try
+        {
+            return Long.parseLong( FileUtils.readFileToString( marker, Charset.forName( "UTF-8" ) ).trim() );
+        }
+        catch ( IOException e )
+        {
+            return 0;
+        }
+        catch ( NumberFormatException e )
+        {
+            return 0;
+        }
+    }
+
+    private static File lockFileOf( File entry )
+    {
+        return new File( entry.getParentFile(), entry.getName() + LOCK_SUFFIX );
+    }
+
+    /**
+     * A lock held by a thread of this JVM and, through a file lock, by this process. File locks are held by the whole
+     * JVM, so threads are serialized by a lock of their own before they try to lock the same file.
+     */
+    private static final class EntryLock
+    {
+        private final ReentrantLock jvmLock;
+
+        private final FileLock fileLock;
+
+        private EntryLock( ReentrantLock jvmLock, FileLock fileLock )
+        {
+            this.jvmLock = jvmLock;
+            this.fileLock = fileLock;
+        }
+
+        /**
+         * Locks a lock file.
+         * 
+         * @param lockFile the lock file, created when missing
+         * @param wait whether to wait for the lock
+         * @return the lock or null if it is held by someone else and wait is false
+         */
+        static EntryLock acquire( File lockFile, boolean wait )
+            throws IOException
+        {
+            String path = lockFile.getAbsolutePath();
+            ReentrantLock jvmLock = new ReentrantLock();
+            ReentrantLock existing = JVM_LOCKS.putIfAbsent( path, jvmLock );
+            jvmLock = existing == null ? jvmLock : existing;
+            if ( wait )
+            {
+                jvmLock.lock();
+            }
+            else if ( !jvmLock.tryLock() )
+            {
+                return null;
+            }
+            RandomAccessFile file = null;
+            FileLock fileLock = null;
+            try
+            {
+                lockFile.getParentFile().mkdirs();
+                file = new RandomAccessFile( lockFile, "rw" );
+                fileLock = wait ? file.getChannel().lock() : file.getChannel().tryLock();
+                return fileLock == null ? null : new EntryLock( jvmLock, fileLock );
+            }
+            finally
+            {
+                if ( fileLock == null )
+                {
+                    IOUtils.closeQuietly( file );
+                    jvmLock.unlock();
+                }
+            }
+        }
+
+        void release()
+            throws IOException
+        {
+            try
+            {
+                fileLock.release();
+            }
+            finally
+            {
+                fileLock.channel().close();
+                jvmLock.unlock();
+            }
+        }
+    }
+}
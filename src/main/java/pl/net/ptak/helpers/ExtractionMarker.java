@@ -0,0 +1,193 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Records that an archive was extracted: the archive (path, size and modification date), the folder it was extracted
+ * to and the selectors used. While the marker matches, the archive doesn't need to be extracted again.<br>
+ * The archive isn't read to write the marker. When the caller already has the MD5 of the archive, it is recorded too:
+ * an archive whose modification date changed but whose content didn't, as happens when a dependency is copied again,
+ * is then still found up to date and the marker is updated with the new date. The archive is only digested for that,
+ * when its date changed.
+ * 
+ * @author Tomasz Ptak
+ */
+public class ExtractionMarker
+{
+
+    private static final String SOURCE = "source";
+
+    private static final String SIZE = "size";
+
+    private static final String LAST_MODIFIED = "lastModified";
+
+    private static final String MD5 = "md5";
+
+    private static final String TARGET = "target";
+
+    private static final String SELECTORS = "selectors";
+
+    /** The file holding the marker. */
+    private final File markerFile;
+
+    /** The extracted archive. */
+    private final File source;
+
+    /** The folder the archive is extracted to. */
+    private final File target;
+
+    /** Description of the selectors used for extraction. */
+    private final String selectors;
+
+    /**
+     * Creates a marker.
+     * 
+     * @param markerFile the file holding the marker
+     * @param source the extracted archive
+     * @param target the folder the archive is extracted to
+     * @param selectors description of the selectors used for extraction, eg. included and excluded paths
+     */
+    public ExtractionMarker( File markerFile, File source, File target, String selectors )
+    {
+        this.markerFile = markerFile;
+        this.source = source;
+        this.target = target;
+        this.selectors = selectors;
+    }
+
+    /**
+     * Gets the archive.
+     * 
+     * @return the extracted archive
+     */
+    public File getSource()
+    {
+        return source;
+    }
+
+    /**
+     * Checks whether the archive was already extracted the same way.
+     * 
+     * @return true if the marker matches the archive, the target folder and the selectors
+     * @throws IOException when the marker or the archive can't be read
+     */
+    public boolean isUpToDate()
+        throws IOException
+    {
+        if ( !markerFile.isFile() || !target.isDirectory() )
+        {
+            return false;
+        }
+        Properties marker = read();
+        if ( !source.getCanonicalPath().equals( marker.getProperty( SOURCE ) )
+            || !target.getCanonicalPath().equals( marker.getProperty( TARGET ) )
+            || !selectors.equals( marker.getProperty( SELECTORS ) )
+            || !String.valueOf( source.length() ).equals( marker.getProperty( SIZE ) ) )
+        {
+            return false;
+        }
+        if ( String.valueOf( source.lastModified() ).equals( marker.getProperty( LAST_MODIFIED ) ) )
+        {
+            return true;
+        }
+        if ( marker.getProperty( MD5 ) != null
+            && FileDigester.digest( source ).getMd5().equalsIgnoreCase( marker.getProperty( MD5 ) ) )
+        {
+            marker.setProperty( LAST_MODIFIED, String.valueOf( source.lastModified() ) );
+            store( marker );
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the marker, to be called once the archive is extracted.
+     * 
+     * @param md5 MD5 of the archive when the caller has it, null otherwise
+     * @throws IOException when the marker can't be written
+     */
+    public void write( String md5 )
+        throws IOException
+    {
+        Properties marker = new Properties();
+        marker.setProperty( SOURCE, source.getCanonicalPath() );
+        marker.setProperty( SIZE, String.valueOf( source.length() ) );
+        marker.setProperty( LAST_MODIFIED, String.valueOf( source.lastModified() ) );
+        if ( md5 != null )
+        {
+            marker.setProperty( MD5, md5 );
+        }
+        marker.setProperty( TARGET, target.getCanonicalPath() );
+        marker.setProperty( SELECTORS, selectors );
+        store( marker );
+    }
+
+    /**
+     * Deletes the marker, to be called before the archive is extracted so that an interrupted extraction is never
+     * taken for a complete one.
+     */
+    public void delete()
+    {
+        FileUtils.deleteQuietly( markerFile );
+    }
+
+    private Properties read()
+        throws IOException
+    {
+        Properties marker = new Properties();
+        InputStream input = new FileInputStream( markerFile );
+        try
+        {
+            marker.load( input );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( input );
+        }
+        return marker;
+    }
+
+    private void store( Properties marker )
+        throws IOException
+    {
+        markerFile.getParentFile().mkdirs();
+        OutputStream output = new FileOutputStream( markerFile );
+        try
+        {
+            marker.store( output, "Extraction marker of " + source.getName() );
+            output.close();
+        }
+        finally
+        {
+            IOUtils.closeQuietly( output );
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The result of reading a file through {@link FileDigester}: its md5 checksum and size, and other digests calculated
+ * by the {@link DigestEngine} used.
+ * 
+ * @author Tomasz Ptak
+ */
+public class FileDigest
+{
+
+    /** Upper case hex representation of the md5 checksum, as expected by prq files. */
+    private final String md5;
+
+    /** The number of bytes read. */
+    private final long size;
+
+    /** Lower case hex representation of other digests, by upper case algorithm name. */
+    private final Map<String, String> digests;
+
+    /**
+     * Creates the digest.
+     * 
+     * @param md5 upper case hex representation of the md5 checksum
+     * @param size the number of bytes read
+     */
+    public FileDigest( String md5, long size )
+    {
+        this( md5, size, Collections.<String, String> emptyMap() );
+    }
+
+    /**
+     * Creates the digest.
+     * 
+     * @param md5 upper case hex representation of the md5 checksum
+     * @param size the number of bytes read
+     * @param digests lower case hex representation of other digests, by upper case algorithm name
+     */
+    public FileDigest( String md5, long size, Map<String, String> digests )
+    {
+        this.md5 = md5;
+        this.size = size;
+        this.digests = Collections.unmodifiableMap( new LinkedHashMap<String, String>( digests ) );
+    }
+
+    /**
+     * Gets the md5 checksum.
+     * 
+     * @return upper case hex representation of the md5 checksum
+     */
+    public String getMd5()
+    {
+        return md5;
+    }
+
+    /**
+     * Gets a digest by algorithm.
+     * 
+     * @param algorithm name of the algorithm, eg. SHA-256
+     * @return lower case hex representation of the digest or null if it wasn't calculated
+     */
+    public String getDigest( String algorithm )
+    {
+        String name = algorithm.toUpperCase( Locale.ROOT );
+        if ( DigestEngine.MD5.equals( name ) )
+        {
+            return md5.toLowerCase( Locale.ROOT );
+        }
+        return digests.get( name );
+    }
+
+    /**
+     * Gets the digests other than md5.
+     * 
+     * @return lower case hex representation of the digests, by upper case algorithm name
+     */
+    public Map<String, String> getDigests()
+    {
+        return digests;
+    }
+
+    /**
+     * Gets the size.
+     * 
+     * @return the number of bytes read
+     */
+    public long getSize()
+    {
+        return size;
+    }
+}
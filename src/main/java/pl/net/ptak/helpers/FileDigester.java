@@ -0,0 +1,244 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Calculates checksums and sizes of files, optionally copying them at the same time, so that each file is read from
+ * the disk exactly once. Reading is done through a large direct buffer, one per thread, and every digest of a
+ * {@link DigestEngine} is fed from the same buffer.
+ * 
+ * @author Tomasz Ptak
+ */
+public final class FileDigester
+{
+
+    /** Size of the read buffer. */
+    public static final int BUFFER_SIZE = 1024 * 1024;
+
+    /** Size of the buffer for reading streams. */
+    private static final int HEAP_BUFFER_SIZE = 64 * 1024;
+
+    /** Direct buffers are expensive to allocate, so every thread keeps its own. */
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>()
+    {
+        @Override
+        protected ByteBuffer initialValue()
+        {
+            return ByteBuffer.allocateDirect( BUFFER_SIZE );
+        }
+    };
+
+    /**
+     * Utility class, no instances.
+     */
+    private FileDigester()
+    {
+    }
+
+    /**
+     * Calculates md5 checksum and size of a file.
+     * 
+     * @param source the file to read
+     * @return checksum and size of the file
+     * @throws IOException when the file can't be read
+     */
+    public static FileDigest digest( File source )
+        throws IOException
+    {
+        return copyAndDigest( source, null );
+    }
+
+    /**
+     * Copies a file and calculates its md5 checksum and size while the bytes are being copied. Last modification
+     * date of the copy is set to the one of the source.
+     * 
+     * @param source the file to read
+     * @param target where to copy the file, if null, no copy is made
+     * @return checksum and size of the file
+     * @throws IOException when the file can't be read or the copy can't be written
+     */
+    public static FileDigest copyAndDigest( File source, File target )
+        throws IOException
+    {
+        return copyAndDigest( source, target, DigestEngine.MD5_ONLY );
+    }
+
+    /**
+     * Copies a file and calculates all digests of an engine and its size while the bytes are being copied. Last
+     * modification date of the copy is set to the one of the source.
+     * 
+     * @param source the file to read
+     * @param target where to copy the file, if null, no copy is made
+     * @param engine the digests to calculate
+     * @return digests and size of the file
+     * @throws IOException when the file can't be read or the copy can't be written
+     */
+    public static FileDigest copyAndDigest( File source, File target, DigestEngine engine )
+        throws IOException
+    {
+        MessageDigest[] digests = engine.newDigests();
+        ByteBuffer buffer = BUFFER.get();
+        buffer.clear();
+        long size = 0;
+
+        FileInputStream input = new FileInputStream( source );
+        FileOutputStream output = null;
+        try
+        {
+            FileChannel inputChannel = input.getChannel();
+            FileChannel outputChannel = null;
+            if ( target != null )
+            {
+                File parent = target.getParentFile();
+                if ( parent != null && !parent.exists() )
+                {
+                    parent.mkdirs();
+                }
+                DirectorySynchronizer.unlinkBeforeWrite( target );
+                output = new FileOutputStream( target );
+                outputChannel = output.getChannel();
+            }
+
+            while ( inputChannel.read( buffer ) != -1 )
+            {
+                buffer.flip();
+                size += buffer.remaining();
+                if ( outputChannel != null )
+                {
+                    buffer.mark();
+                    while ( buffer.hasRemaining() )
+                    {
+                        outputChannel.write( buffer );
+                    }
+                    buffer.reset();
+                }
+                for ( MessageDigest digest : digests )
+                {
+                    buffer.mark();
+                    digest.update( buffer );
+                    buffer.reset();
+                }
+                buffer.clear();
+            }
+
+            if ( output != null )
+            {
+                output.close();
+                output = null;
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly( output );
+            IOUtils.closeQuietly( input );
+        }
+
+        if ( target != null )
+        {
+            target.setLastModified( source.lastModified() );
+        }
+
+        return engine.complete( digests, size );
+    }
+
+    /**
+     * Calculates md5 checksum and size of a stream, optionally copying it to a file, eg. for an entry of an archive
+     * which is not extracted otherwise.
+     * 
+     * @param source the stream to read, it is not closed
+     * @param target where to copy the stream, if null, no copy is made
+     * @return checksum and size of the stream
+     * @throws IOException when the stream can't be read or the copy can't be written
+     */
+    public static FileDigest copyAndDigest( InputStream source, File target )
+        throws IOException
+    {
+        return copyAndDigest( source, target, DigestEngine.MD5_ONLY );
+    }
+
+    /**
+     * Calculates all digests of an engine and the size of a stream, optionally copying it to a file.
+     * 
+     * @param source the stream to read, it is not closed
+     * @param target where to copy the stream, if null, no copy is made
+     * @param engine the digests to calculate
+     * @return digests and size of the stream
+     * @throws IOException when the stream can't be read or the copy can't be written
+     */
+    public static FileDigest copyAndDigest( InputStream source, File target, DigestEngine engine )
+        throws IOException
+    {
+        MessageDigest[] digests = engine.newDigests();
+        byte[] buffer = new byte[HEAP_BUFFER_SIZE];
+        long size = 0;
+
+        FileOutputStream output = null;
+        try
+        {
+            if ( target != null )
+            {
+                File parent = target.getParentFile();
+                if ( parent != null && !parent.exists() )
+                {
+                    parent.mkdirs();
+                }
+                DirectorySynchronizer.unlinkBeforeWrite( target );
+                output = new FileOutputStream( target );
+            }
+
+            int read;
+            while ( ( read = source.read( buffer ) ) != -1 )
+            {
+                size += read;
+                if ( output != null )
+                {
+                    output.write( buffer, 0, read );
+                }
+                for ( MessageDigest digest : digests )
+                {
+                    digest.update( buffer, 0, read );
+                }
+            }
+
+            if ( output != null )
+            {
+                output.close();
+                output = null;
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly( output );
+        }
+
+        return engine.complete( digests, size );
+    }
+}
@@ -0,0 +1,61 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Extracts prz and zip archives from a memory mapping of the archive. The central directory is parsed from the mapping
+ * and stored entries are written straight from it, which saves copying them through the heap. Best suited for big
+ * archives on 64 bit JVMs.
+ * 
+ * @author Tomasz Ptak
+ */
+public class MappedZipUnArchiver
+    extends PrzUnArchiver
+{
+
+    /**
+     * Creates an unarchiver, the archive has to be set with setSourceFile.
+     */
+    public MappedZipUnArchiver()
+    {
+        super();
+    }
+
+    /**
+     * Creates an unarchiver of the given archive.
+     * 
+     * @param sourceFile the archive to extract
+     */
+    public MappedZipUnArchiver( File sourceFile )
+    {
+        super( sourceFile );
+    }
+
+    @Override
+    protected ZipCentralDirectory openDirectory( FileChannel channel )
+        throws IOException
+    {
+        return new ZipCentralDirectory( channel, true );
+    }
+}
@@ -0,0 +1,172 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Describes the content of a prz archive in terms of its original locations, so the archive can be built without
+ * staging the files first. Paths within the archive use forward slashes.<br>
+ * prq-prepackage stores the manifest in the plugin context under {@link #CONTEXT_KEY} for prq-package.
+ * 
+ * @author Tomasz Ptak
+ */
+public class PackagingManifest
+{
+
+    /** The key under which the manifest is stored in the plugin context. */
+    public static final String CONTEXT_KEY = PackagingManifest.class.getName();
+
+    /** Directories to be packaged with their whole content, by path within the archive. */
+    private final Map<String, File> directories = new LinkedHashMap<String, File>();
+
+    /** Files to be packaged, by path within the archive. */
+    private final Map<String, File> files = new LinkedHashMap<String, File>();
+
+    /** Generated content to be packaged, by path within the archive. */
+    private final Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+
+    /** Entries of other archives to be copied as they are, by path within the archive. */
+    private final Map<String, ArchivedFile> archivedFiles = new LinkedHashMap<String, ArchivedFile>();
+
+    /**
+     * Adds a directory with its whole content.
+     * 
+     * @param path path of the directory within the archive
+     * @param directory the directory
+     */
+    public void addDirectory( String path, File directory )
+    {
+        directories.put( path, directory );
+    }
+
+    /**
+     * Adds a file.
+     * 
+     * @param path path of the file within the archive
+     * @param file the file
+     */
+    public void addFile( String path, File file )
+    {
+        files.put( path, file );
+    }
+
+    /**
+     * Adds generated content.
+     * 
+     * @param path path of the file within the archive
+     * @param content the content of the file
+     */
+    public void addContent( String path, byte[] content )
+    {
+        contents.put( path, content );
+    }
+
+    /**
+     * Adds an entry of another archive, to be copied without being extracted and compressed again.
+     * 
+     * @param path path of the file within the archive
+     * @param archive the archive holding the entry
+     * @param entryName path of the entry within that archive
+     */
+    public void addArchivedFile( String path, File archive, String entryName )
+    {
+        archivedFiles.put( path, new ArchivedFile( archive, entryName ) );
+    }
+
+    /**
+     * Gets the directories.
+     * 
+     * @return directories by path within the archive
+     */
+    public Map<String, File> getDirectories()
+    {
+        return Collections.unmodifiableMap( directories );
+    }
+
+    /**
+     * Gets the files.
+     * 
+     * @return files by path within the archive
+     */
+    public Map<String, File> getFiles()
+    {
+        return Collections.unmodifiableMap( files );
+    }
+
+    /**
+     * Gets the generated content.
+     * 
+     * @return content by path within the archive
+     */
+    public Map<String, byte[]> getContents()
+    {
+        return Collections.unmodifiableMap( contents );
+    }
+
+    /**
+     * Gets the entries of other archives.
+     * 
+     * @return entries by path within the archive
+     */
+    public Map<String, ArchivedFile> getArchivedFiles()
+    {
+        return Collections.unmodifiableMap( archivedFiles );
+    }
+
+    /**
+     * An entry of another archive.
+     */
+    public static final class ArchivedFile
+    {
+        private final File archive;
+
+        private final String entryName;
+
+        ArchivedFile( File archive, String entryName )
+        {
+            this.archive = archive;
+            this.entryName = entryName;
+        }
+
+        /**
+         * Gets the archive.
+         * 
+         * @return the archive holding the entry
+         */
+        public File getArchive()
+        {
+            return archive;
+        }
+
+        /**
+         * Gets the entry name.
+         * 
+         * @return path of the entry within the archive
+         */
+        public String getEntryName()
+        {
+            return entryName;
+        }
+    }
+}
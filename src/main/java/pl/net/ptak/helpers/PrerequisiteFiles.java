@@ -0,0 +1,89 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+
+/**
+ * Resolves the prerequisites of a module given as a list of files and patterns, eg. *.prq or prq/**&#47;*.prq.
+ * 
+ * @author Tomasz Ptak
+ */
+public final class PrerequisiteFiles
+{
+
+    private PrerequisiteFiles()
+    {
+    }
+
+    /**
+     * Resolves prerequisites. An item naming an existing file, absolute or relative to basedir, is taken as it is,
+     * anything else is a pattern relative to basedir. Files matched by a pattern are sorted by path, so the result
+     * doesn't depend on the order of the file system.
+     * 
+     * @param basedir the folder patterns and relative paths are relative to
+     * @param defaultPrerequisite the prerequisite used when no items are given
+     * @param items files and patterns, may be null
+     * @return the prerequisites in the order of the items, each listed once, empty when nothing matches
+     */
+    public static List<File> resolve( File basedir, File defaultPrerequisite, String[] items )
+    {
+        if ( items == null || items.length == 0 )
+        {
+            return Arrays.asList( defaultPrerequisite );
+        }
+        Set<File> prerequisites = new LinkedHashSet<File>();
+        for ( String item : items )
+        {
+            File file = new File( item );
+            if ( !file.isAbsolute() )
+            {
+                file = new File( basedir, item );
+            }
+            if ( file.isFile() )
+            {
+                prerequisites.add( file.getAbsoluteFile() );
+                continue;
+            }
+            if ( !basedir.isDirectory() )
+            {
+                continue;
+            }
+            DirectoryScanner scanner = new DirectoryScanner();
+            scanner.setBasedir( basedir );
+            scanner.setIncludes( new String[] { item } );
+            scanner.scan();
+            String[] matches = scanner.getIncludedFiles();
+            Arrays.sort( matches );
+            for ( String match : matches )
+            {
+                prerequisites.add( new File( basedir, match ).getAbsoluteFile() );
+            }
+        }
+        return new ArrayList<File>( prerequisites );
+    }
+}
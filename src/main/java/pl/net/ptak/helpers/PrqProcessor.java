@@ -0,0 +1,734 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.ByteOrderMark;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BOMInputStream;
+import org.apache.commons.io.input.XmlStreamReader;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.StringBuilderWriter;
+
+/**
+ * Reads and rewrites prerequisites and reads file references of InstallShield projects, streaming them with StAX.<br>
+ * Looking up and configuring an XML factory is expensive, so the factory is created once and shared: the processor is
+ * a singleton component, reused by all executions of the plugin in a build, also by parallel module builds. The
+ * factory is configured in the constructor and only used to create readers afterwards, which is safe for concurrent
+ * use.<br>
+ * A prerequisite is rewritten in the same pass which parses it: the text consumed by the parser is copied as it is and
+ * only the start tags of file entries are written anew. StAX doesn't give access to the text of an event and the
+ * character offsets reported by the JDK parser are off after some buffer refills, so keeping the rest byte for byte
+ * takes a scan of the copied text for markup. The scan runs in step with the parser, which decides what a file entry
+ * is, see {@link #rewrite(File, List, OutputStream)}.
+ * 
+ * @author Tomasz Ptak
+ */
+public class PrqProcessor
+{
+
+    /** Element holding the file entries of a prerequisite. */
+    private static final String FILES = "files";
+
+    /** Attribute of a file entry holding the path of the file. */
+    private static final String LOCAL_FILE = "LocalFile";
+
+    /** Attribute of a file entry holding the md5 checksum of the file. */
+    private static final String CHECK_SUM = "CheckSum";
+
+    /** Attribute of a file entry holding the size of the file. */
+    private static final String FILE_SIZE = "FileSize";
+
+    /** Table of an InstallShield project listing the installed files. */
+    private static final String FILE_TABLE = "File";
+
+    /** Column of the File table holding the path of a file on the build machine. */
+    private static final String SOURCE_PATH_COLUMN = "ISBuildSourcePath";
+
+    private final XMLInputFactory inputFactory;
+
+    /**
+     * Creates a processor and configures its factories.
+     */
+    public PrqProcessor()
+    {
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty( XMLInputFactory.IS_COALESCING, Boolean.FALSE );
+        inputFactory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE );
+    }
+
+    /**
+     * Reads the LocalFile attributes of the file entries of a prerequisite, the children of its files element.
+     * 
+     * @param prerequisite the prq file
+     * @return LocalFile of every entry in document order, null for entries without one
+     * @throws IOException when the prerequisite can't be read, is not well formed or has more than one files element
+     */
+    public List<String> readLocalFiles( File prerequisite )
+        throws IOException
+    {
+        List<String> localFiles = new ArrayList<String>();
+        Reader input = new XmlStreamReader( prerequisite );
+        try
+        {
+            parse( input, prerequisite, localFiles, null );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( input );
+        }
+        return localFiles;
+    }
+
+    /**
+     * Copies a prerequisite, replacing the values of the LocalFile, CheckSum and FileSize attributes of the file
+     * entries. Everything else is copied verbatim, character by character: line separators, white space within tags,
+     * quotes, character references, comments and CDATA sections are kept, and so is a byte order mark.<br>
+     * The prerequisite is read and written in a single pass, holding no more than the parser buffer and the current
+     * markup in memory. The characters consumed by a StAX reader are scanned for tags and copied to the output. The
+     * scan skips comments, CDATA sections and quoted brackets and waits at the start tag of a file entry until the
+     * reader reports that entry; an entry the reader doesn't report fails the rewrite instead of being patched.
+     * 
+     * @param prerequisite the prq file
+     * @param updates new values for the file entries in document order, as many as {@link #readLocalFiles(File)}
+     *            returns
+     * @param output receives the new content of the prerequisite, it is not closed
+     * @throws IOException when the prerequisite can't be read or parsed, the output can't be written or the number of
+     *             updates doesn't match
+     */
+    public void rewrite( File prerequisite, List<FileEntryUpdate> updates, OutputStream output )
+        throws IOException
+    {
+        BOMInputStream input =
+            new BOMInputStream( new BufferedInputStream( new FileInputStream( prerequisite ) ), true,
+                ByteOrderMark.UTF_8, ByteOrderMark.UTF_16LE, ByteOrderMark.UTF_16BE );
+        try
+        {
+            ByteOrderMark bom = input.getBOM();
+            XmlStreamReader decoder = new XmlStreamReader( input, true );
+            Writer writer =
+                new OutputStreamWriter( new CloseShieldOutputStream( output ),
+                    bom == null ? decoder.getEncoding() : bom.getCharsetName() );
+            if ( bom != null )
+            {
+                output.write( bom.getBytes() );
+            }
+            Copier copier = new Copier( decoder, writer, updates.iterator() );
+            List<String> localFiles = new ArrayList<String>();
+            parse( copier, prerequisite, localFiles, copier );
+            if ( localFiles.size() != updates.size() )
+            {
+                throw new IOException( String.format( "%s has %d file entries, %d expected", prerequisite,
+                    localFiles.size(), updates.size() ) );
+            }
+            copier.copyRest();
+            writer.close();
+        }
+        finally
+        {
+            IOUtils.closeQuietly( input );
+        }
+    }
+
+    /**
+     * Reads the ISBuildSourcePath column of the File table of an InstallShield project saved as XML.
+     * 
+     * @param project the ism file
+     * @return source paths of all files, with path variables not resolved
+     * @throws IOException when the project can't be read or is not saved as XML
+     */
+    public List<String> readFileSourcePaths( File project )
+        throws IOException
+    {
+        List<String> paths = new ArrayList<String>();
+        InputStream input = new FileInputStream( project );
+        XMLStreamReader reader = null;
+        try
+        {
+            reader = inputFactory.createXMLStreamReader( input );
+            boolean fileTable = false;
+            int columns = 0;
+            int column = -1;
+            int cell = 0;
+            while ( reader.hasNext() )
+            {
+                int event = reader.next();
+                if ( event == XMLStreamConstants.START_ELEMENT )
+                {
+                    String name = reader.getLocalName();
+                    if ( "table".equals( name ) )
+                    {
+                        fileTable = FILE_TABLE.equals( reader.getAttributeValue( null, "name" ) );
+                        columns = 0;
+                        column = -1;
+                    }
+                    else if ( fileTable && "col".equals( name ) )
+                    {
+                        if ( SOURCE_PATH_COLUMN.equals( reader.getElementText().trim() ) )
+                        {
+                            column = columns;
+                        }
+                        columns++;
+                    }
+                    else if ( fileTable && "row".equals( name ) )
+                    {
+                        cell = 0;
+                    }
+                    else if ( fileTable && "td".equals( name ) )
+                    {
+                        String text = reader.getElementText();
+                        if ( cell++ == column )
+                        {
+                            paths.add( text );
+                        }
+                    }
+                }
+            }
+        }
+        catch ( XMLStreamException e )
+        {
+            throw new IOException( String.format( "Failed to parse %s: %s", project, e.getMessage() ), e );
+        }
+        finally
+        {
+            close( reader );
+            IOUtils.closeQuietly( input );
+        }
+        return paths;
+    }
+
+    /**
+     * Reads the file entries of a prerequisite with a StAX reader, which also checks that the document is well formed.
+     * 
+     * @param copier copies the document while it is read, null when it is only read
+     */
+    private void parse( Reader input, File prerequisite, List<String> localFiles, Copier copier )
+        throws IOException
+    {
+        XMLStreamReader reader = null;
+        try
+        {
+            reader = inputFactory.createXMLStreamReader( input );
+            int depth = 0;
+            int filesDepth = -1;
+            int filesElements = 0;
+            while ( reader.hasNext() )
+            {
+                int event = reader.next();
+                if ( event == XMLStreamConstants.START_ELEMENT )
+                {
+                    depth++;
+                    if ( filesDepth >= 0 && depth == filesDepth + 1 )
+                    {
+                        localFiles.add( reader.getAttributeValue( null, LOCAL_FILE ) );
+                        if ( copier != null )
+                        {
+                            copier.fileEntry( qualifiedName( reader ) );
+                        }
+                    }
+                    else if ( FILES.equals( reader.getLocalName() ) )
+                    {
+                        if ( ++filesElements > 1 )
+                        {
+                            throw new IOException( "There should be at most one files element" );
+                        }
+                        filesDepth = depth;
+                    }
+                }
+                else if ( event == XMLStreamConstants.END_ELEMENT )
+                {
+                    if ( depth == filesDepth )
+                    {
+                        filesDepth = -1;
+                    }
+                    depth--;
+                }
+                if ( copier != null )
+                {
+                    copier.copyScanned();
+                }
+            }
+        }
+        catch ( XMLStreamException e )
+        {
+            throw new IOException( String.format( "Failed to parse %s: %s", prerequisite, e.getMessage() ), e );
+        }
+        finally
+        {
+            close( reader );
+        }
+    }
+
+    /**
+     * Replaces the values of LocalFile, CheckSum and FileSize within a start tag.
+     */
+    private static String patchTag( String tag, FileEntryUpdate update )
+    {
+        StringBuilder patched = new StringBuilder( tag.length() );
+        int position = elementName( tag, 0 ).length() + 1;
+        int copied = 0;
+        while ( true )
+        {
+            int equals = tag.indexOf( '=', position );
+            if ( equals < 0 )
+            {
+                break;
+            }
+            String name = localName( tag.substring( position, equals ).trim() );
+            int start = equals + 1;
+            while ( tag.charAt( start ) != '"' && tag.charAt( start ) != '\'' )
+            {
+                start++;
+            }
+            char quote = tag.charAt( start );
+            int end = tag.indexOf( quote, start + 1 );
+            String value = null;
+            if ( LOCAL_FILE.equals( name ) )
+            {
+                value = update.localFile;
+            }
+            else if ( CHECK_SUM.equals( name ) )
+            {
+                value = update.digest.getMd5();
+            }
+            else if ( FILE_SIZE.equals( name ) )
+            {
+                value = String.format( "0,%d", update.digest.getSize() );
+            }
+            if ( value != null )
+            {
+                patched.append( tag, copied, start + 1 ).append( escape( value, quote ) );
+                copied = end;
+            }
+            position = end + 1;
+        }
+        patched.append( tag, copied, tag.length() );
+        return patched.toString();
+    }
+
+    /**
+     * Escapes an attribute value. White space characters are written as character references, otherwise parsers
+     * would normalize them to spaces.
+     */
+    private static String escape( String value, char quote )
+    {
+        StringBuilder escaped = new StringBuilder( value.length() );
+        for ( char c : value.toCharArray() )
+        {
+            switch ( c )
+            {
+                case '&':
+                    escaped.append( "&amp;" );
+                    break;
+                case '<':
+                    escaped.append( "&lt;" );
+                    break;
+                case '\r':
+                    escaped.append( "&#13;" );
+                    break;
+                case '\n':
+                    escaped.append( "&#10;" );
+                    break;
+                case '\t':
+                    escaped.append( "&#9;" );
+                    break;
+                default:
+                    if ( c == quote )
+                    {
+                        escaped.append( c == '"' ? "&quot;" : "&apos;" );
+                    }
+                    else
+                    {
+                        escaped.append( c );
+                    }
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Finds the last character of markup starting with an opening bracket.
+     * 
+     * @return its index, -1 when the markup hasn't been read completely
+     */
+    private static int endOfMarkup( StringBuilder text, int start )
+    {
+        if ( start + 2 >= text.length() )
+        {
+            return -1;
+        }
+        if ( text.charAt( start + 1 ) == '?' )
+        {
+            return endOf( text, "?>", start + 2 );
+        }
+        if ( text.charAt( start + 1 ) != '!' )
+        {
+            return endOfTag( text, start );
+        }
+        if ( text.charAt( start + 2 ) == '-' )
+        {
+            return endOf( text, "-->", start + 4 );
+        }
+        if ( text.charAt( start + 2 ) == '[' )
+        {
+            return endOf( text, "]]>", start + 2 );
+        }
+        return endOfDeclaration( text, start );
+    }
+
+    private static int endOf( StringBuilder text, String delimiter, int from )
+    {
+        int found = text.indexOf( delimiter, from );
+        return found < 0 ? -1 : found + delimiter.length() - 1;
+    }
+
+    /**
+     * Finds the closing bracket of a tag, skipping quoted attribute values, which may contain it.
+     */
+    private static int endOfTag( CharSequence text, int start )
+    {
+        char quote = 0;
+        for ( int i = start + 1; i < text.length(); i++ )
+        {
+            char c = text.charAt( i );
+            if ( quote != 0 )
+            {
+                quote = c == quote ? 0 : quote;
+            }
+            else if ( c == '"' || c == '\'' )
+            {
+                quote = c;
+            }
+            else if ( c == '>' )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the end of a declaration such as DOCTYPE, skipping its internal subset and quoted literals.
+     */
+    private static int endOfDeclaration( CharSequence text, int start )
+    {
+        char quote = 0;
+        int brackets = 0;
+        for ( int i = start + 2; i < text.length(); i++ )
+        {
+            char c = text.charAt( i );
+            if ( quote != 0 )
+            {
+                quote = c == quote ? 0 : quote;
+            }
+            else if ( c == '"' || c == '\'' )
+            {
+                quote = c;
+            }
+            else if ( c == '[' )
+            {
+                brackets++;
+            }
+            else if ( c == ']' )
+            {
+                brackets--;
+            }
+            else if ( c == '>' && brackets == 0 )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String elementName( CharSequence text, int start )
+    {
+        int end = start + 1;
+        while ( end < text.length() && !Character.isWhitespace( text.charAt( end ) ) && text.charAt( end ) != '>'
+            && text.charAt( end ) != '/' )
+        {
+            end++;
+        }
+        return text.subSequence( start + 1, end ).toString();
+    }
+
+    private static String qualifiedName( XMLStreamReader reader )
+    {
+        String prefix = reader.getPrefix();
+        return prefix == null || prefix.length() == 0 ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+    }
+
+    private static String localName( String name )
+    {
+        return name.substring( name.indexOf( ':' ) + 1 );
+    }
+
+    private static void close( XMLStreamReader reader )
+    {
+        try
+        {
+            if ( reader != null )
+            {
+                reader.close();
+            }
+        }
+        catch ( XMLStreamException e )
+        {
+            // nothing more to read anyway
+        }
+    }
+
+    /**
+     * Passes on what the StAX reader reads and copies it to the output once the reader has parsed it. The copied text
+     * is scanned for markup in step with the reader and the start tags of file entries are written patched once the
+     * reader has reported them, so a file entry found by the scan and not by the reader fails the rewrite instead of
+     * being patched.
+     */
+    private static final class Copier
+        extends FilterReader
+    {
+        private final Writer output;
+
+        private final Iterator<FileEntryUpdate> updates;
+
+        /** Characters read by the StAX reader and not dropped yet. */
+        private final StringBuilder pending = new StringBuilder();
+
+        /** How much of the pending characters has been written. */
+        private int copied;
+
+        /** How much of the pending characters has been scanned. */
+        private int scanned;
+
+        private int depth;
+
+        private int filesDepth = -1;
+
+        /** Name of the file entry reported by the StAX reader and not found by the scan yet. */
+        private String reported;
+
+        Copier( Reader input, Writer output, Iterator<FileEntryUpdate> updates )
+        {
+            super( input );
+            this.output = output;
+            this.updates = updates;
+        }
+
+        @Override
+        public int read()
+            throws IOException
+        {
+            int c = in.read();
+            if ( c >= 0 )
+            {
+                pending.append( (char) c );
+            }
+            return c;
+        }
+
+        @Override
+        public int read( char[] buffer, int offset, int length )
+            throws IOException
+        {
+            int read = in.read( buffer, offset, length );
+            if ( read > 0 )
+            {
+                pending.append( buffer, offset, read );
+            }
+            return read;
+        }
+
+        @Override
+        public long skip( long n )
+            throws IOException
+        {
+            throw new IOException( "Skipping would leave characters out of the copy" );
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        @Override
+        public void close()
+        {
+            // the StAX reader closes its input at the end of the document, what it left unread is copied after it
+        }
+
+        /**
+         * Notes a file entry reported by the StAX reader, which has read its start tag completely.
+         * 
+         * @param name qualified name of the element
+         * @throws IOException when the scan hasn't found the previous file entry
+         */
+        void fileEntry( String name )
+            throws IOException
+        {
+            if ( reported != null )
+            {
+                throw new IOException( String.format( "The file entry %s was parsed, but not found in the text",
+                    reported ) );
+            }
+            reported = name;
+        }
+
+        /**
+         * Scans and copies the pending characters up to markup which hasn't been read completely or up to a file
+         * entry which hasn't been reported yet.
+         * 
+         * @throws IOException when the output can't be written or the scan finds another file entry than reported
+         */
+        void copyScanned()
+            throws IOException
+        {
+            while ( scanned < pending.length() )
+            {
+                int start = pending.indexOf( "<", scanned );
+                if ( start < 0 )
+                {
+                    scanned = pending.length();
+                    break;
+                }
+                scanned = start;
+                int end = endOfMarkup( pending, start );
+                if ( end < 0 || !scanMarkup( start, end ) )
+                {
+                    break;
+                }
+                scanned = end + 1;
+            }
+            output.append( pending, copied, scanned );
+            pending.delete( 0, scanned );
+            copied = 0;
+            scanned = 0;
+        }
+
+        /**
+         * Copies what the StAX reader left unread at the end of the document.
+         * 
+         * @throws IOException when the input can't be read, the output can't be written or the scan doesn't end
+         *             with the document
+         */
+        void copyRest()
+            throws IOException
+        {
+            IOUtils.copy( in, new StringBuilderWriter( pending ) );
+            copyScanned();
+            if ( pending.length() > 0 || reported != null )
+            {
+                throw new IOException( "The file entries found in the text don't match the parsed ones" );
+            }
+        }
+
+        /**
+         * Follows the depth of elements and patches the start tag of a file entry.
+         * 
+         * @return false when the markup is the start tag of a file entry which hasn't been reported yet
+         */
+        private boolean scanMarkup( int start, int end )
+            throws IOException
+        {
+            char kind = pending.charAt( start + 1 );
+            if ( kind == '/' )
+            {
+                if ( depth == filesDepth )
+                {
+                    filesDepth = -1;
+                }
+                depth--;
+            }
+            else if ( kind != '!' && kind != '?' )
+            {
+                String name = elementName( pending, start );
+                boolean empty = pending.charAt( end - 1 ) == '/';
+                if ( filesDepth >= 0 && depth == filesDepth )
+                {
+                    if ( reported == null )
+                    {
+                        return false;
+                    }
+                    if ( !reported.equals( name ) )
+                    {
+                        throw new IOException( String.format( "Found the file entry %s where %s was parsed", name,
+                            reported ) );
+                    }
+                    reported = null;
+                    if ( updates.hasNext() )
+                    {
+                        output.append( pending, copied, start );
+                        output.write( patchTag( pending.substring( start, end + 1 ), updates.next() ) );
+                        copied = end + 1;
+                    }
+                }
+                else if ( FILES.equals( localName( name ) ) && !empty )
+                {
+                    filesDepth = depth + 1;
+                }
+                if ( !empty )
+                {
+                    depth++;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * New values of the attributes of a file entry.
+     */
+    public static final class FileEntryUpdate
+    {
+        private final String localFile;
+
+        private final FileDigest digest;
+
+        /**
+         * Creates an update.
+         * 
+         * @param localFile new LocalFile
+         * @param digest checksum and size of the file, for CheckSum and FileSize
+         */
+        public FileEntryUpdate( String localFile, FileDigest digest )
+        {
+            this.localFile = localFile;
+            this.digest = digest;
+        }
+    }
+}
@@ -0,0 +1,687 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.compress.archivers.zip.ScatterZipOutputStream;
+import org.apache.commons.compress.archivers.zip.StreamCompressor;
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntryRequest;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.parallel.FileBasedScatterGatherBackingStore;
+import org.apache.commons.compress.parallel.InputStreamSupplier;
+import org.apache.commons.compress.parallel.ScatterGatherBackingStore;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Creates prz archives, compressing entries on several threads.<br>
+ * Every entry is deflated on its own by a worker into a temporary part (kept in memory for small entries) and the
+ * parts are then copied, still compressed, into the archive. Entries are written sorted by path, parent directories
+ * always have entries of their own and permissions are normalized, so the result does not depend on the number of
+ * threads nor on the order of files on disk. With a fixed timestamp, the same inputs always produce the same bytes.
+ * <br>
+ * Entries of other archives may be added as well; their data is copied as it is stored, without being extracted and
+ * compressed again, so they keep the compression of the source archive.
+ * 
+ * @author Tomasz Ptak
+ */
+public class PrzArchiver
+{
+
+    /** Entries smaller than this are compressed in memory, larger ones into temporary files. */
+    private static final long IN_MEMORY_THRESHOLD = 1024 * 1024;
+
+    /** How many compressed entries per thread may wait to be written to the archive. */
+    private static final int PENDING_ENTRIES_PER_THREAD = 4;
+
+    /** Permissions of files in the archive. */
+    private static final int FILE_MODE = 0644;
+
+    /** Permissions of directories in the archive. */
+    private static final int DIRECTORY_MODE = 0755;
+
+    /** Changes whenever the way the input digest is calculated changes. */
+    private static final String INPUT_DIGEST_VERSION = "prz-inputs-2";
+
+    /** Number of compressing threads. */
+    private final int threads;
+
+    /** Where temporary parts of large entries are written. */
+    private final File temporaryDirectory;
+
+    /** Decides how entries are compressed. */
+    private CompressionPolicy compressionPolicy = new CompressionPolicy();
+
+    /** Modification date of all entries, null to use dates of the files. */
+    private Long fixedTimestamp;
+
+    /** Entries of the archive by path, in the order in which they are written. */
+    private final SortedMap<String, ArchiveItem> items = new TreeMap<String, ArchiveItem>();
+
+    /**
+     * Creates an archiver.
+     * 
+     * @param threads number of compressing threads
+     * @param temporaryDirectory where temporary parts of large entries are written
+     */
+    public PrzArchiver( int threads, File temporaryDirectory )
+    {
+        this.threads = Math.max( 1, threads );
+        this.temporaryDirectory = temporaryDirectory;
+    }
+
+    /**
+     * Sets the policy deciding how entries are compressed. By default all files are deflated with the default level.
+     * 
+     * @param compressionPolicy the policy
+     */
+    public void setCompressionPolicy( CompressionPolicy compressionPolicy )
+    {
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    /**
+     * Sets the modification date of all entries, which makes the archive reproducible. The date is stored so that it
+     * reads the same in every time zone.
+     * 
+     * @param fixedTimestamp milliseconds since the epoch, null to use modification dates of the files
+     */
+    public void setFixedTimestamp( Long fixedTimestamp )
+    {
+        this.fixedTimestamp = fixedTimestamp;
+    }
+
+    /**
+     * Adds a directory with its whole content.
+     * 
+     * @param path path of the directory within the archive, an empty path adds the content at the root
+     * @param directory the directory
+     * @throws IOException when the directory can't be listed
+     */
+    public void addDirectory( String path, File directory )
+        throws IOException
+    {
+        if ( path.length() > 0 )
+        {
+            addItem( new ArchiveItem( path + "/", null, null, directory.lastModified() ) );
+        }
+        File[] children = directory.listFiles();
+        if ( children == null )
+        {
+            throw new IOException( String.format( "Failed to list files of %s", directory ) );
+        }
+        for ( File child : children )
+        {
+            String childPath = path.length() > 0 ? path + "/" + child.getName() : child.getName();
+            if ( child.isDirectory() )
+            {
+                addDirectory( childPath, child );
+            }
+            else
+            {
+                addFile( childPath, child );
+            }
+        }
+    }
+
+    /**
+     * Adds a file.
+     * 
+     * @param path path of the file within the archive
+     * @param file the file
+     */
+    public void addFile( String path, File file )
+    {
+        addItem( new ArchiveItem( path, file, null, file.lastModified() ) );
+    }
+
+    /**
+     * Adds generated content.
+     * 
+     * @param path path of the file within the archive
+     * @param content content of the file
+     * @param lastModified modification date of the file
+     */
+    public void addContent( String path, byte[] content, long lastModified )
+    {
+        addItem( new ArchiveItem( path, null, content, lastModified ) );
+    }
+
+    /**
+     * Adds an entry of another archive, which is copied without being extracted and compressed again.
+     * 
+     * @param path path of the file within the archive
+     * @param archive the archive holding the entry
+     * @param entryName path of the entry within that archive
+     */
+    public void addArchivedFile( String path, File archive, String entryName )
+    {
+        addItem( new ArchiveItem( path, archive, null, entryName, archive.lastModified() ) );
+    }
+
+    private void addItem( ArchiveItem item )
+    {
+        for ( int separator = item.name.indexOf( '/' ); separator >= 0 && separator < item.name.length() - 1;
+                        separator = item.name.indexOf( '/', separator + 1 ) )
+        {
+            String parent = item.name.substring( 0, separator + 1 );
+            if ( !items.containsKey( parent ) )
+            {
+                items.put( parent, new ArchiveItem( parent, null, null, item.lastModified ) );
+            }
+        }
+        items.put( item.name, item );
+    }
+
+    /**
+     * Calculates a digest of everything the archive would be created from: paths, sizes and modification dates of
+     * the files, generated content, the compression policy and the fixed timestamp. If the digest is the same as the
+     * one of an existing archive, creating the archive again would produce the same result.
+     * 
+     * @return hex representation of the SHA-256 digest
+     * @throws IOException when the digest algorithm is not available
+     */
+    public String getInputDigest()
+        throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance( "SHA-256" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IOException( "SHA-256 algorithm is not available", e );
+        }
+        updateDigest( digest, INPUT_DIGEST_VERSION );
+        updateDigest( digest, compressionPolicy.toString() );
+        updateDigest( digest, String.valueOf( fixedTimestamp ) );
+        for ( ArchiveItem item : items.values() )
+        {
+            updateDigest( digest, item.name );
+            if ( item.entryName != null )
+            {
+                updateDigest( digest, String.format( "%s %d %d %s", item.file.getAbsolutePath(), item.file.length(),
+                    item.file.lastModified(), item.entryName ) );
+            }
+            else if ( item.file != null )
+            {
+                updateDigest( digest, String.format( "%d %d", item.file.length(), item.file.lastModified() ) );
+            }
+            else if ( item.content != null )
+            {
+                updateDigest( digest, String.valueOf( item.content.length ) );
+                digest.update( item.content );
+            }
+        }
+        return Hex.encodeHexString( digest.digest() );
+    }
+
+    private void updateDigest( MessageDigest digest, String value )
+    {
+        digest.update( value.getBytes( Charset.forName( "UTF-8" ) ) );
+        digest.update( (byte) '\n' );
+    }
+
+    private long timeOf( ArchiveItem item )
+    {
+        return timeOf( item.lastModified );
+    }
+
+    private long timeOf( long lastModified )
+    {
+        if ( fixedTimestamp == null )
+        {
+            return lastModified;
+        }
+        // zip stores local time, shift it so that the fixed date reads the same in every time zone
+        return fixedTimestamp - TimeZone.getDefault().getOffset( fixedTimestamp );
+    }
+
+    /**
+     * Writes the archive.
+     * 
+     * @param destination the archive file
+     * @throws IOException when an entry can't be read or the archive can't be written
+     */
+    public void createArchive( File destination )
+        throws IOException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        Deque<Future<Part>> pending = new ArrayDeque<Future<Part>>();
+        Map<File, ZipCentralDirectory> sources = new HashMap<File, ZipCentralDirectory>();
+        List<FileChannel> sourceChannels = new ArrayList<FileChannel>();
+        ZipArchiveOutputStream output = new ZipArchiveOutputStream( destination );
+        try
+        {
+            output.setUseZip64( Zip64Mode.AsNeeded );
+            int maxPending = threads * PENDING_ENTRIES_PER_THREAD;
+            Iterator<ArchiveItem> toCompress = items.values().iterator();
+            while ( toCompress.hasNext() || !pending.isEmpty() )
+            {
+                while ( toCompress.hasNext() && pending.size() < maxPending )
+                {
+                    ArchiveItem item = toCompress.next();
+                    if ( item.entryName != null )
+                    {
+                        ZipCentralDirectory source = sources.get( item.file );
+                        if ( source == null )
+                        {
+                            FileChannel channel = FileChannel.open( item.file.toPath(), StandardOpenOption.READ );
+                            sourceChannels.add( channel );
+                            source = new ZipCentralDirectory( channel );
+                            sources.put( item.file, source );
+                        }
+                        pending.add( executor.submit( new RawCopyTask( item, source ) ) );
+                    }
+                    else
+                    {
+                        pending.add( executor.submit( new CompressTask( item ) ) );
+                    }
+                }
+                Part part = await( pending.removeFirst() );
+                try
+                {
+                    part.writeTo( output );
+                }
+                finally
+                {
+                    part.close();
+                }
+            }
+            output.close();
+            output = null;
+        }
+        finally
+        {
+            executor.shutdownNow();
+            discard( pending );
+            if ( output != null )
+            {
+                IOUtils.closeQuietly( output );
+            }
+            for ( FileChannel channel : sourceChannels )
+            {
+                IOUtils.closeQuietly( channel );
+            }
+        }
+    }
+
+    private Part await( Future<Part> future )
+        throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while compressing entries", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException( "Failed to compress an entry", e.getCause() );
+        }
+    }
+
+    /**
+     * Releases parts which will never be written because archiving failed.
+     */
+    private void discard( Deque<Future<Part>> pending )
+    {
+        for ( Future<Part> future : pending )
+        {
+            try
+            {
+                future.get().close();
+            }
+            catch ( Exception e )
+            {
+                // the archive is broken anyway, just make sure temporary files are gone
+                continue;
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * An entry ready to be written to the archive.
+     */
+    private interface Part
+    {
+        void writeTo( ZipArchiveOutputStream output )
+            throws IOException;
+
+        void close()
+            throws IOException;
+    }
+
+    /**
+     * An entry compressed into a part of its own.
+     */
+    private static final class CompressedPart
+        implements Part
+    {
+        private final ScatterZipOutputStream part;
+
+        CompressedPart( ScatterZipOutputStream part )
+        {
+            this.part = part;
+        }
+
+        public void writeTo( ZipArchiveOutputStream output )
+            throws IOException
+        {
+            part.writeTo( output );
+        }
+
+        public void close()
+            throws IOException
+        {
+            part.close();
+        }
+    }
+
+    /**
+     * An entry of another archive, copied as it is stored there.
+     */
+    private static final class RawPart
+        implements Part
+    {
+        private final ZipArchiveEntry entry;
+
+        private final ZipCentralDirectory source;
+
+        private final ZipDirectoryEntry sourceEntry;
+
+        RawPart( ZipArchiveEntry entry, ZipCentralDirectory source, ZipDirectoryEntry sourceEntry )
+        {
+            this.entry = entry;
+            this.source = source;
+            this.sourceEntry = sourceEntry;
+        }
+
+        public void writeTo( ZipArchiveOutputStream output )
+            throws IOException
+        {
+            InputStream raw = source.getRawInputStream( sourceEntry );
+            try
+            {
+                output.addRawArchiveEntry( entry, raw );
+            }
+            finally
+            {
+                IOUtils.closeQuietly( raw );
+            }
+        }
+
+        public void close()
+        {
+            // the source archive is closed with the others
+        }
+    }
+
+    /**
+     * A single entry of the archive.
+     */
+    private static final class ArchiveItem
+    {
+        private final String name;
+
+        /** The file, or the archive holding the entry for archived files. */
+        private final File file;
+
+        private final byte[] content;
+
+        /** Path of the entry within the archive for archived files. */
+        private final String entryName;
+
+        private final long lastModified;
+
+        ArchiveItem( String name, File file, byte[] content, long lastModified )
+        {
+            this( name, file, content, null, lastModified );
+        }
+
+        ArchiveItem( String name, File file, byte[] content, String entryName, long lastModified )
+        {
+            this.name = name;
+            this.file = file;
+            this.content = content;
+            this.entryName = entryName;
+            this.lastModified = lastModified;
+        }
+
+        boolean isDirectory()
+        {
+            return file == null && content == null;
+        }
+
+        long getSize()
+        {
+            if ( file != null )
+            {
+                return file.length();
+            }
+            return content == null ? 0 : content.length;
+        }
+
+        InputStream open()
+            throws IOException
+        {
+            if ( file != null )
+            {
+                return new FileInputStream( file );
+            }
+            return new ByteArrayInputStream( content == null ? new byte[0] : content );
+        }
+    }
+
+    /**
+     * Compresses a single entry into a part of its own.
+     */
+    private class CompressTask
+        implements Callable<Part>
+    {
+        private final ArchiveItem item;
+
+        CompressTask( ArchiveItem item )
+        {
+            this.item = item;
+        }
+
+        public Part call()
+            throws IOException
+        {
+            ZipArchiveEntry entry = new ZipArchiveEntry( item.name );
+            entry.setTime( timeOf( item ) );
+            if ( item.isDirectory() )
+            {
+                entry.setMethod( ZipArchiveEntry.STORED );
+                entry.setUnixMode( UnixStat.DIR_FLAG | DIRECTORY_MODE );
+            }
+            else
+            {
+                entry.setMethod( isToBeStored() ? ZipArchiveEntry.STORED : ZipArchiveEntry.DEFLATED );
+                entry.setUnixMode( UnixStat.FILE_FLAG | FILE_MODE );
+            }
+
+            ScatterGatherBackingStore store;
+            if ( item.getSize() < IN_MEMORY_THRESHOLD )
+            {
+                store = new InMemoryBackingStore();
+            }
+            else
+            {
+                File partFile = File.createTempFile( "prz", ".part", temporaryDirectory );
+                partFile.deleteOnExit();
+                store = new FileBasedScatterGatherBackingStore( partFile );
+            }
+            ScatterZipOutputStream part =
+                new ScatterZipOutputStream( store, StreamCompressor.create( compressionPolicy.getLevel(), store ) );
+
+            final InputStream payload = item.open();
+            try
+            {
+                part.addArchiveEntry( ZipArchiveEntryRequest.createZipArchiveEntryRequest( entry,
+                    new InputStreamSupplier()
+                    {
+                        public InputStream get()
+                        {
+                            return payload;
+                        }
+                    } ) );
+                return new CompressedPart( part );
+            }
+            catch ( IOException e )
+            {
+                part.close();
+                throw e;
+            }
+            finally
+            {
+                IOUtils.closeQuietly( payload );
+            }
+        }
+
+        private boolean isToBeStored()
+            throws IOException
+        {
+            if ( compressionPolicy.isStoredByRule( item.name ) )
+            {
+                return true;
+            }
+            if ( !compressionPolicy.needsSample( item.name ) )
+            {
+                return false;
+            }
+            byte[] sample = new byte[CompressionPolicy.SAMPLE_SIZE];
+            InputStream sampleSource = item.open();
+            try
+            {
+                int length = IOUtils.read( sampleSource, sample );
+                return compressionPolicy.isPoorlyCompressible( sample, length );
+            }
+            finally
+            {
+                IOUtils.closeQuietly( sampleSource );
+            }
+        }
+    }
+
+    /**
+     * Looks up an entry of another archive and describes it for the new archive, the data is copied when the entry
+     * is written.
+     */
+    private class RawCopyTask
+        implements Callable<Part>
+    {
+        private final ArchiveItem item;
+
+        private final ZipCentralDirectory source;
+
+        RawCopyTask( ArchiveItem item, ZipCentralDirectory source )
+        {
+            this.item = item;
+            this.source = source;
+        }
+
+        public Part call()
+            throws IOException
+        {
+            ZipDirectoryEntry sourceEntry = source.getEntry( item.entryName );
+            if ( sourceEntry == null || sourceEntry.isDirectory() )
+            {
+                throw new IOException( String.format( "%s has no file %s", item.file, item.entryName ) );
+            }
+            ZipArchiveEntry entry = new ZipArchiveEntry( item.name );
+            entry.setTime( timeOf( sourceEntry.getTime() ) );
+            entry.setMethod( sourceEntry.getMethod() );
+            entry.setSize( sourceEntry.getSize() );
+            entry.setCompressedSize( sourceEntry.getCompressedSize() );
+            entry.setCrc( sourceEntry.getCrc() );
+            entry.setUnixMode( UnixStat.FILE_FLAG | FILE_MODE );
+            return new RawPart( entry, source, sourceEntry );
+        }
+    }
+
+    /**
+     * Keeps a compressed part in memory.
+     */
+    private static final class InMemoryBackingStore
+        implements ScatterGatherBackingStore
+    {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        public InputStream getInputStream()
+        {
+            return new ByteArrayInputStream( buffer.toByteArray() );
+        }
+
+        public void writeOut( byte[] data, int offset, int length )
+        {
+            buffer.write( data, offset, length );
+        }
+
+        public void closeForWriting()
+        {
+            // nothing to flush
+        }
+
+        public void close()
+        {
+            // nothing to release
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Extracts several prz archives into one directory, the way prerequisites are laid out flat in the dependency folder.
+ * <br>
+ * The central directories of all archives are read first, so a file which more than one archive would write is found
+ * before anything is extracted. Such a file is extracted once if all archives hold the same content (same size and
+ * CRC), otherwise extraction fails. Paths are compared the way Windows file systems do, regardless of case and of the
+ * separator used. The entries of all archives are then extracted by a pool of threads, except for archives known to be
+ * extracted already.
+ * 
+ * @author Tomasz Ptak
+ */
+public class PrzExtractor
+{
+
+    /** Number of extracting threads. */
+    private final int threads;
+
+    /** Archives to extract, in order of precedence for identical entries. */
+    private final List<File> archives = new ArrayList<File>();
+
+    /** Whether archives are mapped into memory. */
+    private boolean mapped;
+
+    /** Archives which are already extracted, only checked for conflicts. */
+    private final Set<File> extractedArchives = new HashSet<File>();
+
+    /** Entries to extract, null to extract all. */
+    private ReferencedFiles.Selection selection;
+
+    /**
+     * Creates an extractor.
+     * 
+     * @param threads number of extracting threads
+     */
+    public PrzExtractor( int threads )
+    {
+        this.threads = Math.max( 1, threads );
+    }
+
+    /**
+     * Sets whether archives are mapped into memory and extracted from the mapping.
+     * 
+     * @param mapped true to map archives
+     */
+    public void setMapped( boolean mapped )
+    {
+        this.mapped = mapped;
+    }
+
+    /**
+     * Limits extraction to referenced files. Other entries are still checked for conflicts.
+     * 
+     * @param selection the referenced files within the extraction folder, null to extract all entries
+     */
+    public void setSelection( ReferencedFiles.Selection selection )
+    {
+        this.selection = selection;
+    }
+
+    /**
+     * Adds an archive to extract.
+     * 
+     * @param archive the prz file
+     */
+    public void addArchive( File archive )
+    {
+        archives.add( archive );
+    }
+
+    /**
+     * Adds an archive which is already extracted. Its entries are not extracted again but still checked for
+     * conflicts with the other archives.
+     * 
+     * @param archive the prz file
+     */
+    public void addExtractedArchive( File archive )
+    {
+        archives.add( archive );
+        extractedArchives.add( archive );
+    }
+
+    /**
+     * Extracts all archives.
+     * 
+     * @param destDirectory the directory to extract to
+     * @return number of extracted entries
+     * @throws IOException when archives can't be read, an entry can't be written or archives conflict
+     */
+    public int extract( File destDirectory )
+        throws IOException
+    {
+        return process( destDirectory, true, null );
+    }
+
+    /**
+     * Checks the archives for conflicts without extracting anything.
+     * 
+     * @param destDirectory the directory the archives would be extracted to
+     * @throws IOException when archives can't be read or conflict
+     */
+    public void checkConflicts( File destDirectory )
+        throws IOException
+    {
+        process( destDirectory, false, null );
+    }
+
+    /**
+     * Lists the files of all archives without extracting anything, for archives passed through packed.
+     * 
+     * @param destDirectory the directory the archives would be extracted to
+     * @return archives by path of the file entries they hold
+     * @throws IOException when archives can't be read or conflict
+     */
+    public EntryManifest index( File destDirectory )
+        throws IOException
+    {
+        EntryManifest manifest = new EntryManifest();
+        process( destDirectory, false, manifest );
+        return manifest;
+    }
+
+    private int process( File destDirectory, boolean extract, EntryManifest manifest )
+        throws IOException
+    {
+        List<FileChannel> channels = new ArrayList<FileChannel>();
+        try
+        {
+            Map<String, ArchivedEntry> entries = new LinkedHashMap<String, ArchivedEntry>();
+            List<String> conflicts = new ArrayList<String>();
+            for ( File archive : archives )
+            {
+                FileChannel channel = FileChannel.open( archive.toPath(), StandardOpenOption.READ );
+                channels.add( channel );
+                collectEntries( archive, new ZipCentralDirectory( channel, mapped ), entries, conflicts );
+            }
+            if ( !conflicts.isEmpty() )
+            {
+                StringBuilder message = new StringBuilder( "Archives extracted to " ).append( destDirectory );
+                message.append( " contain different files under the same path:" );
+                for ( String conflict : conflicts )
+                {
+                    message.append( System.getProperty( "line.separator" ) ).append( conflict );
+                }
+                throw new IOException( message.toString() );
+            }
+
+            if ( manifest != null )
+            {
+                for ( ArchivedEntry entry : entries.values() )
+                {
+                    if ( !entry.entry.isDirectory() )
+                    {
+                        manifest.put( entry.entry.getName(), entry.archive );
+                    }
+                }
+            }
+            return extract ? extractEntries( entries.values(), destDirectory ) : 0;
+        }
+        finally
+        {
+            for ( FileChannel channel : channels )
+            {
+                IOUtils.closeQuietly( channel );
+            }
+        }
+    }
+
+    private void collectEntries( File archive, ZipCentralDirectory directory, Map<String, ArchivedEntry> entries,
+                                 List<String> conflicts )
+    {
+        for ( ZipDirectoryEntry entry : directory.getEntriesInPhysicalOrder() )
+        {
+            String path = entry.getName();
+            String key = path.replace( '\\', '/' ).toLowerCase( Locale.ROOT );
+            ArchivedEntry existing = entries.get( key );
+            if ( existing == null )
+            {
+                entries.put( key, new ArchivedEntry( archive, directory, entry ) );
+            }
+            else if ( !existing.isSameAs( entry ) )
+            {
+                conflicts.add( String.format( "  %s in %s and %s in %s", existing.entry.getName(),
+                    existing.archive.getName(), path, archive.getName() ) );
+            }
+        }
+    }
+
+    private int extractEntries( Iterable<ArchivedEntry> entries, File destDirectory )
+        throws IOException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try
+        {
+            List<Future<Void>> extractions = new ArrayList<Future<Void>>();
+            for ( final ArchivedEntry entry : entries )
+            {
+                if ( extractedArchives.contains( entry.archive )
+                    || ( selection != null && !selection.isReferenced( entry.entry.getName() ) ) )
+                {
+                    continue;
+                }
+                final File target = PrzUnArchiver.resolve( destDirectory, entry.entry );
+                extractions.add( executor.submit( new Callable<Void>()
+                {
+                    public Void call()
+                        throws IOException
+                    {
+                        PrzUnArchiver.writeEntry( entry.directory, entry.entry, target );
+                        return null;
+                    }
+                } ) );
+            }
+            for ( Future<Void> extraction : extractions )
+            {
+                await( extraction );
+            }
+            return extractions.size();
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private void await( Future<Void> extraction )
+        throws IOException
+    {
+        try
+        {
+            extraction.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while extracting archives", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException( "Failed to extract an archive entry", e.getCause() );
+        }
+    }
+
+    /**
+     * An entry together with the archive holding it.
+     */
+    private static class ArchivedEntry
+    {
+        private final File archive;
+
+        private final ZipCentralDirectory directory;
+
+        private final ZipDirectoryEntry entry;
+
+        ArchivedEntry( File archive, ZipCentralDirectory directory, ZipDirectoryEntry entry )
+        {
+            this.archive = archive;
+            this.directory = directory;
+            this.entry = entry;
+        }
+
+        boolean isSameAs( ZipDirectoryEntry other )
+        {
+            if ( entry.isDirectory() || other.isDirectory() )
+            {
+                return entry.isDirectory() && other.isDirectory();
+            }
+            return entry.getSize() == other.getSize() && entry.getCrc() == other.getCrc();
+        }
+    }
+}
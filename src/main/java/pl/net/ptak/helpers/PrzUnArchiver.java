@@ -0,0 +1,268 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.codehaus.plexus.archiver.AbstractUnArchiver;
+import org.codehaus.plexus.archiver.ArchiverException;
+import org.codehaus.plexus.components.io.resources.AbstractPlexusIoResource;
+
+/**
+ * Extracts prz and zip archives, including Zip64 ones bigger than 4GB or with more than 65535 entries.<br>
+ * Entries are read through the central directory and streamed straight to their files, one buffer at a time, so
+ * neither the archive nor any of its entries is ever held in memory. File selectors are resolved against the central
+ * directory, only the selected entries are read from the archive. Entries are extracted in the order in which they
+ * are stored, which keeps reading the archive sequential.
+ * 
+ * @author Tomasz Ptak
+ */
+public class PrzUnArchiver
+    extends AbstractUnArchiver
+{
+
+    /** Size of the buffer used when copying entries. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Creates an unarchiver, the archive has to be set with setSourceFile.
+     */
+    public PrzUnArchiver()
+    {
+        super();
+    }
+
+    /**
+     * Creates an unarchiver of the given archive.
+     * 
+     * @param sourceFile the archive to extract
+     */
+    public PrzUnArchiver( File sourceFile )
+    {
+        super( sourceFile );
+    }
+
+    @Override
+    protected void execute()
+    {
+        execute( "", getDestDirectory() );
+    }
+
+    @Override
+    protected void execute( String path, File outputDirectory )
+    {
+        getLogger().debug( String.format( "Expanding %s into %s", getSourceFile(), outputDirectory ) );
+        FileChannel channel = null;
+        try
+        {
+            channel = FileChannel.open( getSourceFile().toPath(), StandardOpenOption.READ );
+            ZipCentralDirectory directory = openDirectory( channel );
+            for ( ZipDirectoryEntry entry : directory.getEntriesInPhysicalOrder() )
+            {
+                if ( !entry.getName().startsWith( path ) )
+                {
+                    continue;
+                }
+                if ( isSelected( entry.getName(), new ZipEntryResource( directory, entry ) ) )
+                {
+                    extractEntry( directory, entry, outputDirectory );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new ArchiverException( String.format( "Error while expanding %s", getSourceFile() ), e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( channel );
+        }
+    }
+
+    /**
+     * Reads the central directory of the archive.
+     * 
+     * @param channel the archive
+     * @return the central directory through which entries are read
+     * @throws IOException when the archive can't be read
+     */
+    protected ZipCentralDirectory openDirectory( FileChannel channel )
+        throws IOException
+    {
+        return new ZipCentralDirectory( channel );
+    }
+
+    private void extractEntry( ZipCentralDirectory directory, ZipDirectoryEntry entry, File outputDirectory )
+        throws IOException
+    {
+        File target = resolve( outputDirectory, entry );
+        if ( !entry.isDirectory() && !isOverwrite() && target.exists()
+            && target.lastModified() >= entry.getTime() )
+        {
+            getLogger().debug( String.format( "Skipping %s, the existing file is up to date", entry.getName() ) );
+            return;
+        }
+        writeEntry( directory, entry, target );
+    }
+
+    /**
+     * Resolves the file an entry is extracted to.
+     * 
+     * @param outputDirectory directory the archive is extracted to
+     * @param entry the entry
+     * @return the file or directory within outputDirectory
+     * @throws IOException when the entry points outside of outputDirectory
+     */
+    static File resolve( File outputDirectory, ZipDirectoryEntry entry )
+        throws IOException
+    {
+        File target = new File( outputDirectory, entry.getName() );
+        String outputPath = outputDirectory.getCanonicalPath() + File.separator;
+        if ( !target.getCanonicalPath().startsWith( outputPath ) )
+        {
+            throw new IOException( String.format( "Entry %s is outside of the target directory", entry.getName() ) );
+        }
+        return target;
+    }
+
+    /**
+     * Writes an entry to a file, or creates the directory for a directory entry. Different entries of one archive may
+     * be written by several threads at a time. The CRC of the written data is verified, except for stored entries of a
+     * mapped archive, which are written straight from the mapping and only checked for size.
+     * 
+     * @param directory central directory of the archive
+     * @param entry the entry
+     * @param target the file or directory to create
+     * @throws IOException when the entry can't be read or written or is corrupt
+     */
+    static void writeEntry( ZipCentralDirectory directory, ZipDirectoryEntry entry, File target )
+        throws IOException
+    {
+        if ( entry.isDirectory() )
+        {
+            createDirectory( target );
+            return;
+        }
+        createDirectory( target.getParentFile() );
+        DirectorySynchronizer.unlinkBeforeWrite( target );
+        if ( directory.isMapped() && entry.getMethod() == ZipDirectoryEntry.STORED )
+        {
+            writeMappedEntry( directory, entry, target );
+            return;
+        }
+
+        CheckedInputStream input = null;
+        OutputStream output = null;
+        try
+        {
+            input = new CheckedInputStream( directory.getInputStream( entry ), new CRC32() );
+            output = new FileOutputStream( target );
+            IOUtils.copyLarge( input, output, new byte[BUFFER_SIZE] );
+            output.close();
+        }
+        finally
+        {
+            IOUtils.closeQuietly( output );
+            IOUtils.closeQuietly( input );
+        }
+        if ( input.getChecksum().getValue() != entry.getCrc() )
+        {
+            FileUtils.deleteQuietly( target );
+            throw new IOException( String.format( "CRC of %s doesn't match, the archive is corrupt", entry ) );
+        }
+        target.setLastModified( entry.getTime() );
+    }
+
+    private static void writeMappedEntry( ZipCentralDirectory directory, ZipDirectoryEntry entry, File target )
+        throws IOException
+    {
+        FileOutputStream output = new FileOutputStream( target );
+        try
+        {
+            directory.writeStoredEntry( entry, output.getChannel() );
+            output.close();
+        }
+        finally
+        {
+            IOUtils.closeQuietly( output );
+        }
+        if ( target.length() != entry.getSize() )
+        {
+            FileUtils.deleteQuietly( target );
+            throw new IOException( String.format( "Size of %s doesn't match, the archive is corrupt", entry ) );
+        }
+        target.setLastModified( entry.getTime() );
+    }
+
+    private static void createDirectory( File directory )
+        throws IOException
+    {
+        // another thread may create the same directory in the meantime
+        if ( !directory.mkdirs() && !directory.isDirectory() )
+        {
+            throw new IOException( String.format( "Failed to create directory %s", directory ) );
+        }
+    }
+
+    /**
+     * Describes an archive entry for file selectors.
+     */
+    private static class ZipEntryResource
+        extends AbstractPlexusIoResource
+    {
+        private final ZipCentralDirectory directory;
+
+        private final ZipDirectoryEntry entry;
+
+        ZipEntryResource( ZipCentralDirectory directory, ZipDirectoryEntry entry )
+        {
+            this.directory = directory;
+            this.entry = entry;
+            setName( entry.getName() );
+            setLastModified( entry.getTime() );
+            setSize( entry.getSize() );
+            setDirectory( entry.isDirectory() );
+            setFile( !entry.isDirectory() );
+            setExisting( true );
+        }
+
+        public InputStream getContents()
+            throws IOException
+        {
+            return directory.getInputStream( entry );
+        }
+
+        public URL getURL()
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.codehaus.plexus.components.io.fileselectors.FileInfo;
+import org.codehaus.plexus.components.io.fileselectors.FileSelector;
+
+/**
+ * Files referenced by a prerequisite (the LocalFile attributes of its file entries) and by an InstallShield project
+ * (the ISBuildSourcePath column of its File table), so that only those are extracted from dependency archives.<br>
+ * Paths are compared without regard to case and separators, the way Windows resolves them.
+ * 
+ * @author Tomasz Ptak
+ */
+public class ReferencedFiles
+{
+
+    /** Path variable of InstallShield pointing to the folder of the project file. */
+    private static final String PROJECT_FOLDER_VARIABLE = "ISProjectFolder";
+
+    /** Path variable reference, eg. &lt;ISProjectFolder&gt;. */
+    private static final Pattern PATH_VARIABLE = Pattern.compile( "<([^<>]+)>" );
+
+    /** Normalized absolute paths of the referenced files. */
+    private final TreeSet<String> paths = new TreeSet<String>();
+
+    /** Reads the prerequisite and the project. */
+    private final PrqProcessor processor;
+
+    /**
+     * Creates an empty set of references.
+     * 
+     * @param processor reads the prerequisite and the project
+     */
+    public ReferencedFiles( PrqProcessor processor )
+    {
+        this.processor = processor;
+    }
+
+    /**
+     * Adds a referenced file.
+     * 
+     * @param file the file
+     */
+    public void add( File file )
+    {
+        paths.add( normalize( file ) );
+    }
+
+    /**
+     * Adds the files referenced by a prerequisite.
+     * 
+     * @param prerequisite the prq file
+     * @param basedir the folder LocalFile paths are relative to
+     * @return number of references found
+     * @throws IOException when the prerequisite can't be read
+     */
+    public int addFromPrerequisite( File prerequisite, File basedir )
+        throws IOException
+    {
+        int found = 0;
+        for ( String localFile : processor.readLocalFiles( prerequisite ) )
+        {
+            if ( localFile != null )
+            {
+                add( new File( basedir, separatorsToSystem( localFile ) ) );
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Adds the files referenced by an InstallShield project saved as XML. Path variables are resolved with the given
+     * values, ISProjectFolder defaults to the folder of the project, relative paths are relative to that folder. Paths
+     * using unknown variables are skipped.
+     * 
+     * @param project the ism file
+     * @param pathVariables values of path variables, may be null
+     * @return number of references found
+     * @throws IOException when the project can't be read or is not saved as XML
+     */
+    public int addFromInstallShieldProject( File project, Map<String, String> pathVariables )
+        throws IOException
+    {
+        int found = 0;
+        for ( String sourcePath : processor.readFileSourcePaths( project ) )
+        {
+            String path = resolve( sourcePath, project, pathVariables );
+            if ( path != null )
+            {
+                File file = new File( separatorsToSystem( path ) );
+                add( file.isAbsolute() ? file : new File( project.getAbsoluteFile().getParentFile(), file.getPath() ) );
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Creates a selector of referenced files for an archive extracted to a folder.
+     * 
+     * @param destDirectory the folder the archive is extracted to
+     * @return the selector
+     */
+    public Selection in( File destDirectory )
+    {
+        return new Selection( normalize( destDirectory ) + "/" );
+    }
+
+    private static String normalize( File file )
+    {
+        String path = file.toPath().toAbsolutePath().normalize().toString();
+        return path.replace( '\\', '/' ).toLowerCase( Locale.ROOT );
+    }
+
+    private static String separatorsToSystem( String path )
+    {
+        return path.replace( '\\', File.separatorChar ).replace( '/', File.separatorChar );
+    }
+
+    private static String resolve( String path, File project, Map<String, String> pathVariables )
+    {
+        StringBuffer resolved = new StringBuffer();
+        Matcher variable = PATH_VARIABLE.matcher( path.trim() );
+        while ( variable.find() )
+        {
+            String name = variable.group( 1 );
+            String value = pathVariables == null ? null : pathVariables.get( name );
+            if ( value == null && PROJECT_FOLDER_VARIABLE.equals( name ) )
+            {
+                value = project.getAbsoluteFile().getParent();
+            }
+            if ( value == null )
+            {
+                return null;
+            }
+            variable.appendReplacement( resolved, Matcher.quoteReplacement( value ) );
+        }
+        variable.appendTail( resolved );
+        return resolved.length() == 0 ? null : resolved.toString();
+    }
+
+    /**
+     * Referenced files of an archive extracted to one folder. Selects the entries which would be extracted to a
+     * referenced file, directories are created for selected files only.
+     */
+    public final class Selection
+        implements FileSelector
+    {
+
+        /** Normalized path of the folder the archive is extracted to, ending with a separator. */
+        private final String prefix;
+
+        private Selection( String prefix )
+        {
+            this.prefix = prefix;
+        }
+
+        /**
+         * Checks whether an entry is extracted to a referenced file.
+         * 
+         * @param entryName path of the entry within the archive
+         * @return true if the entry is a referenced file
+         */
+        public boolean isReferenced( String entryName )
+        {
+            if ( entryName.endsWith( "/" ) )
+            {
+                return false;
+            }
+            String path = prefix + entryName.replace( '\\', '/' ).toLowerCase( Locale.ROOT );
+            return paths.contains( normalize( new File( separatorsToSystem( path ) ) ) );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean isSelected( FileInfo fileInfo )
+        {
+            return fileInfo.isFile() && isReferenced( fileInfo.getName() );
+        }
+
+        /**
+         * Describes the selection for extraction markers, so that an archive is extracted again when the references
+         * into it change.
+         * 
+         * @return digest of the referenced files within the folder
+         */
+        public String describe()
+        {
+            StringBuilder selected = new StringBuilder();
+            for ( String path : paths.subSet( prefix, true, prefix + Character.MAX_VALUE, false ) )
+            {
+                selected.append( path ).append( '\n' );
+            }
+            return "referenced=" + DigestUtils.md5Hex( selected.toString() );
+        }
+    }
+}
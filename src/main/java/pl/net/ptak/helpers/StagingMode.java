@@ -0,0 +1,78 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Describes how files are placed in a staging directory.
+ * 
+ * @author Tomasz Ptak
+ */
+public enum StagingMode
+{
+    /** Files are copied. */
+    COPY( "copy" ),
+
+    /** Files are hard linked when the source and the target are on the same file system, copied otherwise. */
+    HARDLINK( "hardlink" ),
+
+    /**
+     * Symbolic links to files are created, so the content is only read when the staging directory is archived. Files
+     * are copied when a link can't be created.
+     */
+    SYMLINK( "symlink-then-resolve" );
+
+    /** The name used in plugin configuration. */
+    private final String id;
+
+    StagingMode( String id )
+    {
+        this.id = id;
+    }
+
+    /**
+     * Gets the name used in plugin configuration.
+     * 
+     * @return the id
+     */
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * Finds the mode by the name used in plugin configuration or by the constant name, ignoring case.
+     * 
+     * @param value the name
+     * @return the mode
+     * @throws IllegalArgumentException when no mode has the given name
+     */
+    public static StagingMode fromString( String value )
+    {
+        for ( StagingMode mode : values() )
+        {
+            if ( mode.id.equalsIgnoreCase( value ) || mode.name().equalsIgnoreCase( value ) )
+            {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException( String.format( "Unknown staging mode %s, expected one of: %s, %s, %s",
+            value, COPY.id, HARDLINK.id, SYMLINK.id ) );
+    }
+}
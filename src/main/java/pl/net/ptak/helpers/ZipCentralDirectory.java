@@ -0,0 +1,682 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.compress.archivers.zip.ZipUtil;
+
+/**
+ * Reads the central directory of a zip archive, Zip64 included, and gives access to single entries.<br>
+ * Opening an archive reads only its end and its central directory. The local header and the data of an entry are
+ * read when the entry is opened, so extracting a few entries of a huge archive reads only these entries. Entries are
+ * read with positional reads, several threads may read different entries of one archive at a time.<br>
+ * A mapped directory maps the whole archive into memory, in chunks of at most 1GB, and reads everything from the
+ * mapping. Stored entries are then written to files straight from the mapping, deflated entries are inflated through
+ * a small reusable array as Java 7 inflaters only accept arrays. The mapping is released when garbage collected.
+ * 
+ * @author Tomasz Ptak
+ */
+public class ZipCentralDirectory
+{
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+
+    private static final int EOCD_SIZE = 22;
+
+    private static final int EOCD_CD_SIZE = 12;
+
+    private static final int EOCD_CD_OFFSET = 16;
+
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+
+    private static final int ZIP64_LOCATOR_EOCD_OFFSET = 8;
+
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+
+    private static final int ZIP64_EOCD_SIZE = 56;
+
+    private static final int ZIP64_EOCD_CD_SIZE = 40;
+
+    private static final int ZIP64_EOCD_CD_OFFSET = 48;
+
+    private static final int CFH_SIGNATURE = 0x02014b50;
+
+    private static final int CFH_SIZE = 46;
+
+    private static final int CFH_FLAGS = 8;
+
+    private static final int CFH_METHOD = 10;
+
+    private static final int CFH_TIME = 12;
+
+    private static final int CFH_CRC = 16;
+
+    private static final int CFH_COMPRESSED_SIZE = 20;
+
+    private static final int CFH_SIZE_FIELD = 24;
+
+    private static final int CFH_NAME_LENGTH = 28;
+
+    private static final int CFH_EXTRA_LENGTH = 30;
+
+    private static final int CFH_COMMENT_LENGTH = 32;
+
+    private static final int CFH_LOCAL_HEADER_OFFSET = 42;
+
+    private static final int LFH_SIGNATURE = 0x04034b50;
+
+    private static final int LFH_SIZE = 30;
+
+    private static final int LFH_FLAGS = 6;
+
+    private static final int LFH_NAME_LENGTH = 26;
+
+    private static final int LFH_EXTRA_LENGTH = 28;
+
+    private static final int EXTRA_HEADER_SIZE = 4;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    /** Info-ZIP Unicode Path extra field, holding the UTF-8 name of an entry and the CRC of its original name. */
+    private static final int UNICODE_PATH_EXTRA_ID = 0x7075;
+
+    /** Size of the version and name CRC fields preceding the name in the Unicode Path extra field. */
+    private static final int UNICODE_PATH_HEADER_SIZE = 5;
+
+    private static final int UNSIGNED_SHORT = 0xFFFF;
+
+    private static final int UNSIGNED_BYTE = 0xFF;
+
+    private static final int FLAG_ENCRYPTED = 1;
+
+    /** General purpose flag bit 11, set when the name of an entry is UTF-8 encoded. */
+    private static final int FLAG_UTF8 = 1 << 11;
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    /** Encoding of names without the UTF-8 flag, as defined by the zip specification. */
+    private static final Charset CP437 = Charset.forName( "IBM437" );
+
+    private static final int INFLATER_BUFFER_SIZE = 64 * 1024;
+
+    /** Size of a mapped chunk of the archive. */
+    private static final long CHUNK_SIZE = 1024L * 1024 * 1024;
+
+    /** The archive. */
+    private final FileChannel channel;
+
+    /** Chunks of the mapped archive, null when the archive is not mapped. */
+    private final List<ByteBuffer> chunks;
+
+    /** Entries in the order of the central directory. */
+    private final List<ZipDirectoryEntry> entries;
+
+    /** Entries by name, built on first lookup. */
+    private volatile Map<String, ZipDirectoryEntry> entriesByName;
+
+    /**
+     * Reads the central directory of an archive.
+     * 
+     * @param channel the archive, it is not closed by this class
+     * @throws IOException when the archive can't be read or is not a zip archive
+     */
+    public ZipCentralDirectory( FileChannel channel )
+        throws IOException
+    {
+        this( channel, false );
+    }
+
+    /**
+     * Reads the central directory of an archive, optionally mapping the archive into memory.
+     * 
+     * @param channel the archive, it is not closed by this class
+     * @param mapped whether to map the archive and read it from the mapping
+     * @throws IOException when the archive can't be read or is not a zip archive
+     */
+    public ZipCentralDirectory( FileChannel channel, boolean mapped )
+        throws IOException
+    {
+        this.channel = channel;
+        this.chunks = mapped ? map( channel ) : null;
+        this.entries = Collections.unmodifiableList( readEntries() );
+    }
+
+    /**
+     * Checks whether the archive is mapped.
+     * 
+     * @return true when the archive is read from a mapping
+     */
+    public boolean isMapped()
+    {
+        return chunks != null;
+    }
+
+    /**
+     * Gets the entries.
+     * 
+     * @return entries in the order of the central directory
+     */
+    public List<ZipDirectoryEntry> getEntries()
+    {
+        return entries;
+    }
+
+    /**
+     * Gets the entries in the order in which their data is stored, which makes reading them sequential.
+     * 
+     * @return entries sorted by position in the archive
+     */
+    public List<ZipDirectoryEntry> getEntriesInPhysicalOrder()
+    {
+        List<ZipDirectoryEntry> sorted = new ArrayList<ZipDirectoryEntry>( entries );
+        Collections.sort( sorted, new Comparator<ZipDirectoryEntry>()
+        {
+            public int compare( ZipDirectoryEntry first, ZipDirectoryEntry second )
+            {
+                return Long.valueOf( first.getLocalHeaderOffset() ).compareTo( second.getLocalHeaderOffset() );
+            }
+        } );
+        return sorted;
+    }
+
+    /**
+     * Finds where the data of an entry begins, reading its local header.
+     * 
+     * @param entry the entry
+     * @return position of the first byte of the entry data in the archive
+     * @throws IOException when the local header can't be read, is corrupt or the entry is encrypted
+     */
+    public long getDataOffset( ZipDirectoryEntry entry )
+        throws IOException
+    {
+        ByteBuffer header = region( entry.getLocalHeaderOffset(), LFH_SIZE );
+        if ( header.getInt( 0 ) != LFH_SIGNATURE )
+        {
+            throw new IOException( String.format( "Local header of %s is corrupt", entry ) );
+        }
+        if ( ( header.getShort( LFH_FLAGS ) & FLAG_ENCRYPTED ) != 0 )
+        {
+            throw new IOException( String.format( "Entry %s is encrypted, which is not supported", entry ) );
+        }
+        int nameLength = header.getShort( LFH_NAME_LENGTH ) & UNSIGNED_SHORT;
+        int extraLength = header.getShort( LFH_EXTRA_LENGTH ) & UNSIGNED_SHORT;
+        return entry.getLocalHeaderOffset() + LFH_SIZE + nameLength + extraLength;
+    }
+
+    /**
+     * Finds an entry by name.
+     * 
+     * @param name path of the entry
+     * @return the entry or null if the archive has no such entry
+     */
+    public ZipDirectoryEntry getEntry( String name )
+    {
+        if ( entriesByName == null )
+        {
+            Map<String, ZipDirectoryEntry> byName = new HashMap<String, ZipDirectoryEntry>( entries.size() * 2 );
+            for ( ZipDirectoryEntry entry : entries )
+            {
+                byName.put( entry.getName(), entry );
+            }
+            entriesByName = byName;
+        }
+        return entriesByName.get( name );
+    }
+
+    /**
+     * Opens the data of an entry as it is stored in the archive, eg. to copy it into another archive without
+     * extracting it.
+     * 
+     * @param entry the entry
+     * @return stream of the compressed entry
+     * @throws IOException when the entry can't be read
+     */
+    public InputStream getRawInputStream( ZipDirectoryEntry entry )
+        throws IOException
+    {
+        long dataOffset = getDataOffset( entry );
+        return isMapped() ? new MappedInputStream( chunks, dataOffset, entry.getCompressedSize() )
+                        : new ChannelInputStream( channel, dataOffset, entry.getCompressedSize() );
+    }
+
+    /**
+     * Opens an entry for reading.
+     * 
+     * @param entry the entry
+     * @return stream of the extracted entry
+     * @throws IOException when the entry can't be read or uses an unsupported compression method
+     */
+    public InputStream getInputStream( ZipDirectoryEntry entry )
+        throws IOException
+    {
+        InputStream data = getRawInputStream( entry );
+        switch ( entry.getMethod() )
+        {
+            case ZipDirectoryEntry.STORED:
+                return data;
+            case ZipDirectoryEntry.DEFLATED:
+                return new InflatingInputStream( data );
+            default:
+                throw new IOException( String.format( "Entry %s uses compression method %d, which is not supported",
+                    entry, entry.getMethod() ) );
+        }
+    }
+
+    /**
+     * Writes the data of a stored entry straight from the mapping, without copying it to the heap.
+     * 
+     * @param entry a stored entry
+     * @param target where to write the entry
+     * @throws IOException when the archive is not mapped, the entry is not stored or can't be written
+     */
+    public void writeStoredEntry( ZipDirectoryEntry entry, WritableByteChannel target )
+        throws IOException
+    {
+        if ( !isMapped() || entry.getMethod() != ZipDirectoryEntry.STORED )
+        {
+            throw new IOException( String.format( "Entry %s can't be written from a mapping", entry ) );
+        }
+        long position = getDataOffset( entry );
+        long remaining = entry.getCompressedSize();
+        while ( remaining > 0 )
+        {
+            ByteBuffer part = chunk( chunks, position );
+            part.limit( part.position() + (int) Math.min( part.remaining(), remaining ) );
+            int length = part.remaining();
+            while ( part.hasRemaining() )
+            {
+                target.write( part );
+            }
+            position += length;
+            remaining -= length;
+        }
+    }
+
+    private static List<ByteBuffer> map( FileChannel channel )
+        throws IOException
+    {
+        List<ByteBuffer> mapped = new ArrayList<ByteBuffer>();
+        long size = channel.size();
+        for ( long position = 0; position < size; position += CHUNK_SIZE )
+        {
+            mapped.add( channel.map( FileChannel.MapMode.READ_ONLY, position, Math.min( CHUNK_SIZE, size - position ) )
+                               .order( ByteOrder.LITTLE_ENDIAN ) );
+        }
+        return mapped;
+    }
+
+    /**
+     * Gets the chunk holding a position of the archive.
+     * 
+     * @return independent view of the chunk, positioned at the given position
+     */
+    private static ByteBuffer chunk( List<ByteBuffer> chunks, long position )
+        throws EOFException
+    {
+        int index = (int) ( position / CHUNK_SIZE );
+        if ( index >= chunks.size() )
+        {
+            throw new EOFException( "Unexpected end of archive" );
+        }
+        ByteBuffer chunk = chunks.get( index ).duplicate().order( ByteOrder.LITTLE_ENDIAN );
+        chunk.position( (int) ( position % CHUNK_SIZE ) );
+        return chunk;
+    }
+
+    /**
+     * Gets a part of the archive, from the mapping when possible.
+     */
+    private ByteBuffer region( long position, int length )
+        throws IOException
+    {
+        if ( isMapped() && position / CHUNK_SIZE == ( position + length - 1 ) / CHUNK_SIZE )
+        {
+            ByteBuffer chunk = chunk( chunks, position );
+            if ( chunk.remaining() < length )
+            {
+                throw new EOFException( "Unexpected end of archive" );
+            }
+            chunk.limit( chunk.position() + length );
+            return chunk.slice().order( ByteOrder.LITTLE_ENDIAN );
+        }
+        return read( channel, position, length );
+    }
+
+    /**
+     * Reads a part of a file.
+     * 
+     * @param channel the file
+     * @param position where to start reading
+     * @param length number of bytes to read
+     * @return little endian buffer with the bytes read
+     * @throws IOException when the file can't be read or is too short
+     */
+    static ByteBuffer read( FileChannel channel, long position, int length )
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( length ).order( ByteOrder.LITTLE_ENDIAN );
+        while ( buffer.hasRemaining() )
+        {
+            if ( channel.read( buffer, position + buffer.position() ) < 0 )
+            {
+                throw new EOFException( "Unexpected end of archive" );
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private List<ZipDirectoryEntry> readEntries()
+        throws IOException
+    {
+        long archiveSize = channel.size();
+        int tailLength = (int) Math.min( archiveSize, EOCD_SIZE + MAX_COMMENT_SIZE );
+        ByteBuffer tail = region( archiveSize - tailLength, tailLength );
+        int eocd = tailLength - EOCD_SIZE;
+        while ( eocd >= 0 && tail.getInt( eocd ) != EOCD_SIGNATURE )
+        {
+            eocd--;
+        }
+        if ( eocd < 0 )
+        {
+            throw new IOException( "Not a zip archive, end of central directory not found" );
+        }
+
+        long eocdPosition = archiveSize - tailLength + eocd;
+        long directorySize = tail.getInt( eocd + EOCD_CD_SIZE ) & ZIP64_MAGIC;
+        long directoryOffset = tail.getInt( eocd + EOCD_CD_OFFSET ) & ZIP64_MAGIC;
+        if ( eocdPosition >= ZIP64_LOCATOR_SIZE )
+        {
+            ByteBuffer locator = region( eocdPosition - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE );
+            if ( locator.getInt( 0 ) == ZIP64_LOCATOR_SIGNATURE )
+            {
+                ByteBuffer zip64Eocd = region( locator.getLong( ZIP64_LOCATOR_EOCD_OFFSET ), ZIP64_EOCD_SIZE );
+                if ( zip64Eocd.getInt( 0 ) != ZIP64_EOCD_SIGNATURE )
+                {
+                    throw new IOException( "Zip64 end of central directory is corrupt" );
+                }
+                directorySize = zip64Eocd.getLong( ZIP64_EOCD_CD_SIZE );
+                directoryOffset = zip64Eocd.getLong( ZIP64_EOCD_CD_OFFSET );
+            }
+        }
+        if ( directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > eocdPosition )
+        {
+            throw new IOException( "Central directory is corrupt" );
+        }
+
+        ByteBuffer directory = region( directoryOffset, (int) directorySize );
+        List<ZipDirectoryEntry> result = new ArrayList<ZipDirectoryEntry>();
+        int position = 0;
+        while ( position + CFH_SIZE <= directory.limit() && directory.getInt( position ) == CFH_SIGNATURE )
+        {
+            position = readEntry( directory, position, result );
+        }
+        return result;
+    }
+
+    private int readEntry( ByteBuffer directory, int position, List<ZipDirectoryEntry> result )
+        throws IOException
+    {
+        int flags = directory.getShort( position + CFH_FLAGS ) & UNSIGNED_SHORT;
+        int method = directory.getShort( position + CFH_METHOD ) & UNSIGNED_SHORT;
+        long dosTime = directory.getInt( position + CFH_TIME ) & ZIP64_MAGIC;
+        long crc = directory.getInt( position + CFH_CRC ) & ZIP64_MAGIC;
+        long compressedSize = directory.getInt( position + CFH_COMPRESSED_SIZE ) & ZIP64_MAGIC;
+        long size = directory.getInt( position + CFH_SIZE_FIELD ) & ZIP64_MAGIC;
+        int nameLength = directory.getShort( position + CFH_NAME_LENGTH ) & UNSIGNED_SHORT;
+        int extraLength = directory.getShort( position + CFH_EXTRA_LENGTH ) & UNSIGNED_SHORT;
+        int commentLength = directory.getShort( position + CFH_COMMENT_LENGTH ) & UNSIGNED_SHORT;
+        long localHeaderOffset = directory.getInt( position + CFH_LOCAL_HEADER_OFFSET ) & ZIP64_MAGIC;
+
+        int end = position + CFH_SIZE + nameLength + extraLength + commentLength;
+        if ( end > directory.limit() )
+        {
+            throw new IOException( "Central directory is corrupt" );
+        }
+        byte[] name = new byte[nameLength];
+        directory.position( position + CFH_SIZE );
+        directory.get( name );
+        String unicodeName = null;
+
+        // sizes and offset which don't fit in 32 bits are stored in the Zip64 extra field, in this order
+        int extra = position + CFH_SIZE + nameLength;
+        int extraEnd = extra + extraLength;
+        while ( extra + EXTRA_HEADER_SIZE <= extraEnd )
+        {
+            int id = directory.getShort( extra ) & UNSIGNED_SHORT;
+            int length = directory.getShort( extra + 2 ) & UNSIGNED_SHORT;
+            int field = extra + EXTRA_HEADER_SIZE;
+            if ( id == ZIP64_EXTRA_ID )
+            {
+                if ( size == ZIP64_MAGIC )
+                {
+                    size = directory.getLong( field );
+                    field += Long.SIZE / Byte.SIZE;
+                }
+                if ( compressedSize == ZIP64_MAGIC )
+                {
+                    compressedSize = directory.getLong( field );
+                    field += Long.SIZE / Byte.SIZE;
+                }
+                if ( localHeaderOffset == ZIP64_MAGIC )
+                {
+                    localHeaderOffset = directory.getLong( field );
+                }
+            }
+            else if ( id == UNICODE_PATH_EXTRA_ID && length > UNICODE_PATH_HEADER_SIZE && ( flags & FLAG_UTF8 ) == 0 )
+            {
+                unicodeName = readUnicodePath( directory, field, length, name );
+            }
+            extra += EXTRA_HEADER_SIZE + length;
+        }
+
+        String entryName = unicodeName;
+        if ( entryName == null )
+        {
+            entryName = new String( name, ( flags & FLAG_UTF8 ) != 0 ? UTF8 : CP437 );
+        }
+        result.add( new ZipDirectoryEntry( entryName, method, compressedSize, size, crc,
+                                           ZipUtil.dosToJavaTime( dosTime ), localHeaderOffset ) );
+        return end;
+    }
+
+    /**
+     * Reads the name stored in a Unicode Path extra field. The field is ignored, and null returned, when it was written
+     * for a different name than the one stored in the header, as the name was then changed by a tool unaware of it.
+     */
+    private static String readUnicodePath( ByteBuffer directory, int field, int length, byte[] name )
+    {
+        CRC32 nameCrc = new CRC32();
+        nameCrc.update( name );
+        if ( ( directory.getInt( field + 1 ) & ZIP64_MAGIC ) != nameCrc.getValue() )
+        {
+            return null;
+        }
+        byte[] unicodeName = new byte[length - UNICODE_PATH_HEADER_SIZE];
+        directory.position( field + UNICODE_PATH_HEADER_SIZE );
+        directory.get( unicodeName );
+        return new String( unicodeName, UTF8 );
+    }
+
+    /**
+     * Reads a part of a file with positional reads, without changing the position of the channel.
+     */
+    private static class ChannelInputStream
+        extends InputStream
+    {
+        private final FileChannel channel;
+
+        private long position;
+
+        private long remaining;
+
+        ChannelInputStream( FileChannel channel, long position, long length )
+        {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read()
+            throws IOException
+        {
+            byte[] single = new byte[1];
+            return read( single, 0, 1 ) < 0 ? -1 : single[0] & UNSIGNED_BYTE;
+        }
+
+        @Override
+        public int read( byte[] buffer, int offset, int length )
+            throws IOException
+        {
+            if ( remaining <= 0 )
+            {
+                return -1;
+            }
+            if ( length == 0 )
+            {
+                return 0;
+            }
+            int read = channel.read( ByteBuffer.wrap( buffer, offset, (int) Math.min( length, remaining ) ), position );
+            if ( read < 0 )
+            {
+                throw new EOFException( "Unexpected end of archive" );
+            }
+            position += read;
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available()
+        {
+            return (int) Math.min( remaining, Integer.MAX_VALUE );
+        }
+    }
+
+    /**
+     * Reads a part of a mapped file.
+     */
+    private static class MappedInputStream
+        extends InputStream
+    {
+        private final List<ByteBuffer> chunks;
+
+        private long position;
+
+        private long remaining;
+
+        /** View of the chunk being read. */
+        private ByteBuffer current;
+
+        MappedInputStream( List<ByteBuffer> chunks, long position, long length )
+        {
+            this.chunks = chunks;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read()
+            throws IOException
+        {
+            byte[] single = new byte[1];
+            return read( single, 0, 1 ) < 0 ? -1 : single[0] & UNSIGNED_BYTE;
+        }
+
+        @Override
+        public int read( byte[] buffer, int offset, int length )
+            throws IOException
+        {
+            if ( remaining <= 0 )
+            {
+                return -1;
+            }
+            if ( current == null || !current.hasRemaining() )
+            {
+                current = chunk( chunks, position );
+            }
+            int read = (int) Math.min( Math.min( length, remaining ), current.remaining() );
+            current.get( buffer, offset, read );
+            position += read;
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available()
+        {
+            return (int) Math.min( remaining, Integer.MAX_VALUE );
+        }
+    }
+
+    /**
+     * Inflates raw deflate data and releases the native inflater when closed.
+     */
+    private static class InflatingInputStream
+        extends InflaterInputStream
+    {
+        InflatingInputStream( InputStream data )
+        {
+            // the inflater needs a dummy byte after raw deflate data to detect its end
+            super( new SequenceInputStream( data, new ByteArrayInputStream( new byte[1] ) ), new Inflater( true ),
+                   INFLATER_BUFFER_SIZE );
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            try
+            {
+                super.close();
+            }
+            finally
+            {
+                inf.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * An entry of a zip archive as described by the central directory.
+ * 
+ * @author Tomasz Ptak
+ */
+public class ZipDirectoryEntry
+{
+
+    /** Compression method of entries stored as they are. */
+    public static final int STORED = 0;
+
+    /** Compression method of deflated entries. */
+    public static final int DEFLATED = 8;
+
+    private final String name;
+
+    private final int method;
+
+    private final long compressedSize;
+
+    private final long size;
+
+    private final long crc;
+
+    private final long time;
+
+    private final long localHeaderOffset;
+
+    /**
+     * Creates an entry.
+     * 
+     * @param name path of the entry, directories end with a slash
+     * @param method compression method
+     * @param compressedSize size of the entry data in the archive
+     * @param size size of the extracted entry
+     * @param crc CRC-32 of the extracted entry
+     * @param time modification date in milliseconds since the epoch
+     * @param localHeaderOffset position of the local file header in the archive
+     */
+    public ZipDirectoryEntry( String name, int method, long compressedSize, long size, long crc, long time,
+                              long localHeaderOffset )
+    {
+        this.name = name;
+        this.method = method;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.crc = crc;
+        this.time = time;
+        this.localHeaderOffset = localHeaderOffset;
+    }
+
+    /**
+     * Gets the name.
+     * 
+     * @return path of the entry, directories end with a slash
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Gets the compression method.
+     * 
+     * @return {@link #STORED} or {@link #DEFLATED}
+     */
+    public int getMethod()
+    {
+        return method;
+    }
+
+    /**
+     * Gets the compressed size.
+     * 
+     * @return size of the entry data in the archive
+     */
+    public long getCompressedSize()
+    {
+        return compressedSize;
+    }
+
+    /**
+     * Gets the size.
+     * 
+     * @return size of the extracted entry
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Gets the CRC.
+     * 
+     * @return CRC-32 of the extracted entry
+     */
+    public long getCrc()
+    {
+        return crc;
+    }
+
+    /**
+     * Gets the modification date.
+     * 
+     * @return milliseconds since the epoch
+     */
+    public long getTime()
+    {
+        return time;
+    }
+
+    /**
+     * Gets the local header offset.
+     * 
+     * @return position of the local file header in the archive
+     */
+    public long getLocalHeaderOffset()
+    {
+        return localHeaderOffset;
+    }
+
+    /**
+     * Checks whether the entry is a directory.
+     * 
+     * @return true for directories
+     */
+    public boolean isDirectory()
+    {
+        return name.endsWith( "/" );
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
@@ -0,0 +1,128 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Storing and looking up checksums in a {@link ChecksumCache}.
+ * 
+ * @author Tomasz Ptak
+ */
+public class ChecksumCacheTest
+{
+
+    private static final int MAX_ENTRIES = 10;
+
+    private static final long ONE_MINUTE = 60000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    private File cacheFile;
+
+    private FileDigest digest;
+
+    @Before
+    public void createFile()
+        throws IOException
+    {
+        file = folder.newFile( "file.txt" );
+        FileUtils.writeStringToFile( file, "content", "UTF-8" );
+        cacheFile = new File( folder.getRoot(), "cache/checksums.cache" );
+        digest = FileDigester.copyAndDigest( file, null, new DigestEngine( "SHA-256" ) );
+    }
+
+    @Test
+    public void storesDigestsAcrossInstances()
+        throws IOException
+    {
+        ChecksumCache cache = new ChecksumCache( cacheFile, MAX_ENTRIES );
+        cache.put( file, digest, file.length(), file.lastModified() );
+        cache.save();
+
+        ChecksumCache loaded = new ChecksumCache( cacheFile, MAX_ENTRIES );
+        loaded.load();
+        FileDigest cached = loaded.get( file );
+        assertNotNull( cached );
+        assertEquals( digest.getMd5(), cached.getMd5() );
+        assertEquals( digest.getDigest( "SHA-256" ), cached.getDigest( "SHA-256" ) );
+        String[] files = cacheFile.getParentFile().list();
+        Arrays.sort( files );
+        assertEquals( "no temporary file is left next to the cache",
+                      Arrays.asList( "checksums.cache", "checksums.cache.lock" ), Arrays.asList( files ) );
+    }
+
+    @Test
+    public void forgetsModifiedFile()
+        throws IOException
+    {
+        ChecksumCache cache = new ChecksumCache( cacheFile, MAX_ENTRIES );
+        cache.put( file, digest, file.length(), file.lastModified() );
+        file.setLastModified( file.lastModified() - ONE_MINUTE );
+        assertNull( cache.get( file ) );
+    }
+
+    @Test
+    public void skipsFileModifiedWhileDigested()
+        throws IOException
+    {
+        long size = file.length();
+        long lastModified = file.lastModified();
+        FileUtils.writeStringToFile( file, "changed", "UTF-8" );
+        file.setLastModified( lastModified + ONE_MINUTE );
+
+        ChecksumCache cache = new ChecksumCache( cacheFile, MAX_ENTRIES );
+        cache.put( file, digest, size, lastModified );
+        assertNull( cache.get( file ) );
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntries()
+        throws IOException
+    {
+        ChecksumCache cache = new ChecksumCache( cacheFile, 1 );
+        File other = folder.newFile( "other.txt" );
+        FileDigest otherDigest = FileDigester.copyAndDigest( other, null, DigestEngine.MD5_ONLY );
+        cache.put( file, digest, file.length(), file.lastModified() );
+        cache.put( other, otherDigest, other.length(), other.lastModified() );
+        cache.save();
+
+        ChecksumCache loaded = new ChecksumCache( cacheFile, 1 );
+        loaded.load();
+        assertNull( loaded.get( file ) );
+        assertNotNull( loaded.get( other ) );
+    }
+}
@@ -0,0 +1,153 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares digesting a file with {@link FileDigester} to digesting it through streams, as the plugin used to. The
+ * file stays in the page cache, so the numbers show the cost of reading and hashing, not of the disk.<br>
+ * Not run by the build, run it with the main method from the test classpath, eg. from the IDE.
+ * 
+ * @author Tomasz Ptak
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class DigestEngineBenchmark
+{
+
+    @Param( { "67108864" } )
+    private int fileSize;
+
+    private File file;
+
+    private final DigestEngine md5AndSha256 = new DigestEngine( "SHA-256" );
+
+    @Setup
+    public void createFile()
+        throws IOException
+    {
+        byte[] content = new byte[fileSize];
+        new Random( fileSize ).nextBytes( content );
+        file = File.createTempFile( "digest", ".bin" );
+        FileUtils.writeByteArrayToFile( file, content );
+    }
+
+    @TearDown
+    public void deleteFile()
+    {
+        FileUtils.deleteQuietly( file );
+    }
+
+    @Benchmark
+    public String streamMd5()
+        throws IOException
+    {
+        InputStream input = new BufferedInputStream( new FileInputStream( file ) );
+        try
+        {
+            return DigestUtils.md5Hex( input );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( input );
+        }
+    }
+
+    @Benchmark
+    public String streamMd5ThenSha256()
+        throws IOException
+    {
+        InputStream input = new BufferedInputStream( new FileInputStream( file ) );
+        try
+        {
+            DigestUtils.md5Hex( input );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( input );
+        }
+        input = new BufferedInputStream( new FileInputStream( file ) );
+        try
+        {
+            return DigestUtils.sha256Hex( input );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( input );
+        }
+    }
+
+    @Benchmark
+    public FileDigest md5()
+        throws IOException
+    {
+        return FileDigester.digest( file );
+    }
+
+    @Benchmark
+    public FileDigest md5AndSha256()
+        throws IOException
+    {
+        return FileDigester.copyAndDigest( file, null, md5AndSha256 );
+    }
+
+    /**
+     * Runs the benchmarks.
+     * 
+     * @param args not used
+     * @throws RunnerException when the benchmarks fail
+     */
+    public static void main( String[] args )
+        throws RunnerException
+    {
+        new Runner( new OptionsBuilder().include( DigestEngineBenchmark.class.getSimpleName() ).build() ).run();
+    }
+}
@@ -0,0 +1,172 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Synchronizing directories with {@link DirectorySynchronizer}.
+ * 
+ * @author Tomasz Ptak
+ */
+public class DirectorySynchronizerTest
+{
+
+    private static final int THREADS = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File source;
+
+    private File target;
+
+    @Before
+    public void createSource()
+        throws IOException
+    {
+        source = folder.newFolder( "source" );
+        target = new File( folder.getRoot(), "target" );
+        write( new File( source, "a.txt" ), "a" );
+        write( new File( source, "sub/b.txt" ), "b" );
+    }
+
+    @Test
+    public void copiesChangedFilesAndRemovesStaleOnes()
+        throws IOException
+    {
+        DirectorySynchronizer synchronizer = new DirectorySynchronizer();
+        synchronizer.synchronize( source, target );
+        assertEquals( 2, synchronizer.getCopiedFiles() );
+        assertEquals( "b", read( new File( target, "sub/b.txt" ) ) );
+
+        write( new File( target, "stale.txt" ), "stale" );
+        write( new File( source, "a.txt" ), "changed" );
+        DirectorySynchronizer second = new DirectorySynchronizer();
+        second.setThreads( THREADS );
+        second.synchronize( source, target );
+        assertEquals( 1, second.getCopiedFiles() );
+        assertEquals( 1, second.getUnchangedFiles() );
+        assertEquals( 1, second.getDeletedFiles() );
+        assertEquals( "changed", read( new File( target, "a.txt" ) ) );
+        assertFalse( new File( target, "stale.txt" ).exists() );
+    }
+
+    @Test
+    public void mergeKeepsOtherFiles()
+        throws IOException
+    {
+        write( new File( target, "other.txt" ), "other" );
+        new DirectorySynchronizer().merge( source, target );
+        assertTrue( new File( target, "other.txt" ).exists() );
+        assertEquals( "a", read( new File( target, "a.txt" ) ) );
+    }
+
+    @Test
+    public void hardLinksShareContentButAreNeverWrittenThrough()
+        throws IOException
+    {
+        DirectorySynchronizer synchronizer = new DirectorySynchronizer( StagingMode.HARDLINK );
+        synchronizer.synchronize( source, target );
+        Assume.assumeTrue( synchronizer.getLinkedFiles() == 2 );
+        File linked = new File( target, "a.txt" );
+        assertTrue( Files.isSameFile( linked.toPath(), new File( source, "a.txt" ).toPath() ) );
+
+        DirectorySynchronizer.unlinkBeforeWrite( linked );
+        write( linked, "written" );
+        assertEquals( "a", read( new File( source, "a.txt" ) ) );
+    }
+
+    @Test
+    public void copyModeReplacesSymbolicLinks()
+        throws IOException
+    {
+        DirectorySynchronizer linker = new DirectorySynchronizer( StagingMode.SYMLINK );
+        linker.synchronize( source, target );
+        Assume.assumeTrue( linker.getLinkedFiles() == 2 );
+        File linked = new File( target, "a.txt" );
+        assertTrue( Files.isSymbolicLink( linked.toPath() ) );
+        assertTrue( linker.isStaged( new File( source, "a.txt" ), linked ) );
+
+        DirectorySynchronizer copier = new DirectorySynchronizer( StagingMode.COPY );
+        assertFalse( copier.isStaged( new File( source, "a.txt" ), linked ) );
+        copier.synchronize( source, target );
+        assertEquals( 2, copier.getCopiedFiles() );
+        assertFalse( Files.isSymbolicLink( linked.toPath() ) );
+        assertEquals( "a", read( linked ) );
+    }
+
+    @Test
+    public void copyModeReplacesHardLinks()
+        throws IOException
+    {
+        DirectorySynchronizer linker = new DirectorySynchronizer( StagingMode.HARDLINK );
+        linker.synchronize( source, target );
+        Assume.assumeTrue( linker.getLinkedFiles() == 2 );
+        File original = new File( source, "a.txt" );
+        File linked = new File( target, "a.txt" );
+
+        DirectorySynchronizer copier = new DirectorySynchronizer( StagingMode.COPY );
+        assertFalse( copier.isStaged( original, linked ) );
+        copier.synchronize( source, target );
+        assertEquals( 2, copier.getCopiedFiles() );
+        assertFalse( Files.isSameFile( original.toPath(), linked.toPath() ) );
+
+        write( linked, "written" );
+        assertEquals( "a", read( original ) );
+    }
+
+    @Test
+    public void removeStaleKeepsListedFiles()
+        throws IOException
+    {
+        DirectorySynchronizer synchronizer = new DirectorySynchronizer();
+        synchronizer.removeStale( source, Collections.singleton( new File( source, "a.txt" ).getAbsoluteFile() ) );
+        assertTrue( new File( source, "a.txt" ).exists() );
+        assertFalse( new File( source, "sub" ).exists() );
+    }
+
+    private static void write( File file, String content )
+        throws IOException
+    {
+        FileUtils.writeStringToFile( file, content, "UTF-8" );
+    }
+
+    private static String read( File file )
+        throws IOException
+    {
+        return FileUtils.readFileToString( file, "UTF-8" );
+    }
+}
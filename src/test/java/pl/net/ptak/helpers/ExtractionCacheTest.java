@@ -0,0 +1,153 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Placing extracted archives through {@link ExtractionCache}.
+ * 
+ * @author Tomasz Ptak
+ */
+public class ExtractionCacheTest
+{
+
+    private static final long MAX_SIZE = 1024 * 1024;
+
+    private static final long ONE_MINUTE = 60000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File archive;
+
+    private int extractions;
+
+    private final ExtractionCache.Extractor extractor = new ExtractionCache.Extractor()
+    {
+        public void extract( File source, File directory )
+            throws IOException
+        {
+            extractions++;
+            FileUtils.writeStringToFile( new File( directory, "sub/file.txt" ), "cached", "UTF-8" );
+        }
+    };
+
+    @Before
+    public void createArchive()
+        throws IOException
+    {
+        archive = folder.newFile( "dependency.prz" );
+        FileUtils.writeStringToFile( archive, "archive content", "UTF-8" );
+    }
+
+    @Test
+    public void extractsOnceAndPlacesFromCache()
+        throws IOException
+    {
+        ExtractionCache cache = new ExtractionCache( folder.newFolder( "cache" ), MAX_SIZE );
+        File first = folder.newFolder( "first" );
+        File second = folder.newFolder( "second" );
+
+        assertFalse( cache.materialize( archive, "all", extractor, first, hardLinks() ) );
+        assertTrue( cache.materialize( archive, "all", extractor, second, hardLinks() ) );
+
+        assertEquals( 1, extractions );
+        assertEquals( "cached", FileUtils.readFileToString( new File( second, "sub/file.txt" ), "UTF-8" ) );
+    }
+
+    @Test
+    public void writingPlacedFilesLeavesCacheAlone()
+        throws IOException
+    {
+        ExtractionCache cache = new ExtractionCache( folder.newFolder( "cache" ), MAX_SIZE );
+        File first = folder.newFolder( "first" );
+        File second = folder.newFolder( "second" );
+        cache.materialize( archive, "all", extractor, first, hardLinks() );
+
+        File placed = new File( first, "sub/file.txt" );
+        FileDigester.copyAndDigest( new ByteArrayInputStream( "changed".getBytes( "UTF-8" ) ), placed );
+
+        cache.materialize( archive, "all", extractor, second, hardLinks() );
+        assertEquals( "changed", FileUtils.readFileToString( placed, "UTF-8" ) );
+        assertEquals( "cached", FileUtils.readFileToString( new File( second, "sub/file.txt" ), "UTF-8" ) );
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedExtractions()
+        throws IOException
+    {
+        File root = folder.newFolder( "cache" );
+        ExtractionCache cache = new ExtractionCache( root, 1 );
+        cache.materialize( archive, "first", extractor, folder.newFolder( "first" ), hardLinks() );
+        cache.materialize( archive, "second", extractor, folder.newFolder( "second" ), hardLinks() );
+
+        assertEquals( 1, FileUtils.listFiles( root, new String[] { "txt" }, true ).size() );
+    }
+
+    @Test
+    public void evictionRemovesLockFilesOfEvictedExtractions()
+        throws IOException
+    {
+        File root = folder.newFolder( "cache" );
+        ExtractionCache cache = new ExtractionCache( root, 1 );
+        cache.materialize( archive, "first", extractor, folder.newFolder( "first" ), hardLinks() );
+        cache.materialize( archive, "second", extractor, folder.newFolder( "second" ), hardLinks() );
+
+        String[] locks = new File( root, archive.getName() ).list( new SuffixFileFilter( ".lock" ) );
+        assertEquals( 1, locks.length );
+    }
+
+    @Test
+    public void readsArchiveOnlyWhenItsSizeOrDateChanged()
+        throws IOException
+    {
+        ExtractionCache cache = new ExtractionCache( folder.newFolder( "cache" ), MAX_SIZE );
+        cache.materialize( archive, "all", extractor, folder.newFolder( "first" ), hardLinks() );
+        long lastModified = archive.lastModified();
+
+        // same size and date: the archive isn't read, so the cached extraction is used
+        FileUtils.writeStringToFile( archive, "ARCHIVE CONTENT", "UTF-8" );
+        archive.setLastModified( lastModified );
+        assertTrue( cache.materialize( archive, "all", extractor, folder.newFolder( "second" ), hardLinks() ) );
+
+        archive.setLastModified( lastModified - ONE_MINUTE );
+        assertFalse( cache.materialize( archive, "all", extractor, folder.newFolder( "third" ), hardLinks() ) );
+        assertEquals( 2, extractions );
+    }
+
+    private static DirectorySynchronizer hardLinks()
+    {
+        return new DirectorySynchronizer( StagingMode.HARDLINK );
+    }
+}
@@ -0,0 +1,97 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Matching archives against an {@link ExtractionMarker}.
+ * 
+ * @author Tomasz Ptak
+ */
+public class ExtractionMarkerTest
+{
+
+    private static final long ONE_MINUTE = 60000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File archive;
+
+    private File target;
+
+    private File markerFile;
+
+    @Before
+    public void createArchive()
+        throws IOException
+    {
+        archive = folder.newFile( "archive.prz" );
+        FileUtils.writeStringToFile( archive, "content", "UTF-8" );
+        target = folder.newFolder( "target" );
+        markerFile = new File( folder.getRoot(), "markers/archive.prz.marker" );
+    }
+
+    @Test
+    public void matchesUntouchedArchive()
+        throws IOException
+    {
+        new ExtractionMarker( markerFile, archive, target, "flat" ).write( null );
+
+        assertTrue( new ExtractionMarker( markerFile, archive, target, "flat" ).isUpToDate() );
+        assertFalse( new ExtractionMarker( markerFile, archive, target, "other" ).isUpToDate() );
+    }
+
+    @Test
+    public void matchesCopiedArchiveByGivenMd5()
+        throws IOException
+    {
+        String md5 = FileDigester.digest( archive ).getMd5();
+        new ExtractionMarker( markerFile, archive, target, "flat" ).write( md5 );
+        archive.setLastModified( archive.lastModified() - ONE_MINUTE );
+
+        assertTrue( new ExtractionMarker( markerFile, archive, target, "flat" ).isUpToDate() );
+
+        FileUtils.writeStringToFile( archive, "CONTENT", "UTF-8" );
+        archive.setLastModified( archive.lastModified() - ONE_MINUTE );
+        assertFalse( new ExtractionMarker( markerFile, archive, target, "flat" ).isUpToDate() );
+    }
+
+    @Test
+    public void rejectsArchiveWithOtherDateWithoutMd5()
+        throws IOException
+    {
+        new ExtractionMarker( markerFile, archive, target, "flat" ).write( null );
+        archive.setLastModified( archive.lastModified() - ONE_MINUTE );
+
+        assertFalse( new ExtractionMarker( markerFile, archive, target, "flat" ).isUpToDate() );
+    }
+}
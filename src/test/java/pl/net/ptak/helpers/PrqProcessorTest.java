@@ -0,0 +1,185 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Round trip of prerequisites through {@link PrqProcessor}.
+ * 
+ * @author Tomasz Ptak
+ */
+public class PrqProcessorTest
+{
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final PrqProcessor processor = new PrqProcessor();
+
+    @Test
+    public void readsLocalFilesOfFileEntries()
+        throws Exception
+    {
+        assertEquals( Arrays.asList( "./target/dependency/sub/a.dll", "./target/dependency/b.txt" ),
+            processor.readLocalFiles( fixture() ) );
+    }
+
+    @Test
+    public void rewriteReplacesOnlyValuesOfFileEntries()
+        throws Exception
+    {
+        String original = FileUtils.readFileToString( fixture(), "UTF-8" );
+        assertTrue( "fixture must have CRLF line ends", original.contains( "\r\n" ) );
+
+        byte[] rewritten =
+            rewrite( fixture(), Arrays.asList( update( "./proj/a.dll", "AAAA", 1 ),
+                update( "./proj/b.txt", "BBBB", 2 ) ) );
+
+        String expected =
+            original.replace( "LocalFile=\"./target/dependency/sub/a.dll\" CheckSum=\"OLD\" FileSize=\"0,0\"",
+                "LocalFile=\"./proj/a.dll\" CheckSum=\"AAAA\" FileSize=\"0,1\"" )
+                    .replace( "LocalFile = './target/dependency/b.txt'", "LocalFile = './proj/b.txt'" )
+                    .replace( "CheckSum='OLD' FileSize=\"0,0\"", "CheckSum='BBBB' FileSize=\"0,2\"" );
+        assertArrayEquals( expected.getBytes( "UTF-8" ), rewritten );
+    }
+
+    @Test
+    public void rewriteEscapesNewValues()
+        throws Exception
+    {
+        String awkward = "a\r\nb\t\"c\" 'd' <e> & f";
+        File rewritten = folder.newFile( "escaped.prq" );
+        FileUtils.writeByteArrayToFile( rewritten,
+            rewrite( fixture(), Arrays.asList( update( awkward, "A", 1 ), update( awkward, "B", 2 ) ) ) );
+
+        List<String> localFiles = processor.readLocalFiles( rewritten );
+        assertEquals( Arrays.asList( awkward, awkward ), localFiles );
+    }
+
+    @Test
+    public void rewriteRejectsMissingUpdates()
+        throws Exception
+    {
+        try
+        {
+            rewrite( fixture(), Arrays.asList( update( "./a", "A", 1 ) ) );
+            fail( "one update for two file entries" );
+        }
+        catch ( IOException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().contains( "2 file entries" ) );
+        }
+    }
+
+    @Test
+    public void rewriteSkipsMarkupInCommentsAndCdata()
+        throws Exception
+    {
+        String original =
+            "<?xml version=\"1.0\"?>\n<SetupPrereq>\n<files>\n"
+                + "<!-- <file LocalFile=\"comment\" CheckSum=\"OLD\" FileSize=\"0,0\"/> -->\n"
+                + "<![CDATA[<file LocalFile=\"cdata\" CheckSum=\"OLD\" FileSize=\"0,0\"/>]]>\n"
+                + "<file LocalFile=\"a\" Condition=\"x > 1\" CheckSum=\"OLD\" FileSize=\"0,0\"/>\n"
+                + "</files>\n</SetupPrereq>\n";
+        File prq = folder.newFile( "markup.prq" );
+        FileUtils.writeStringToFile( prq, original, "UTF-8" );
+
+        assertEquals( Arrays.asList( "a" ), processor.readLocalFiles( prq ) );
+        byte[] rewritten = rewrite( prq, Arrays.asList( update( "b", "NEW", 1 ) ) );
+
+        String expected =
+            original.replace( "LocalFile=\"a\" Condition=\"x > 1\" CheckSum=\"OLD\" FileSize=\"0,0\"",
+                "LocalFile=\"b\" Condition=\"x > 1\" CheckSum=\"NEW\" FileSize=\"0,1\"" );
+        assertArrayEquals( expected.getBytes( "UTF-8" ), rewritten );
+    }
+
+    @Test
+    public void rewriteCopiesDocumentsLargerThanTheParserBuffer()
+        throws Exception
+    {
+        StringBuilder original = new StringBuilder( "<?xml version=\"1.0\"?>\r\n<SetupPrereq>\r\n<files>\r\n" );
+        List<PrqProcessor.FileEntryUpdate> updates = new ArrayList<PrqProcessor.FileEntryUpdate>();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            original.append( "<!-- <file LocalFile='no'/> -->" ).append( i % 2 == 0 ? "\r\n" : "" );
+            original.append( String.format( "<file LocalFile = './f%d' Condition=\"a > %d\"\r\n CheckSum='M%d' "
+                + "FileSize=\"0,%d\"%s", i, i, i, i, i % 3 == 0 ? "/>" : "></file>" ) );
+            updates.add( update( "./f" + i, "M" + i, i ) );
+        }
+        original.append( "</files>\r\n</SetupPrereq>\r\n" );
+        File prq = folder.newFile( "large.prq" );
+        FileUtils.writeStringToFile( prq, original.toString(), "UTF-8" );
+
+        assertArrayEquals( original.toString().getBytes( "UTF-8" ), rewrite( prq, updates ) );
+    }
+
+    @Test
+    public void rewriteKeepsByteOrderMarkAndEncoding()
+        throws Exception
+    {
+        String original =
+            "\ufeff<?xml version=\"1.0\" encoding=\"UTF-16\"?>\r\n<SetupPrereq><files>"
+                + "<file LocalFile=\"\u0105\" CheckSum=\"OLD\" FileSize=\"0,0\"/></files></SetupPrereq>";
+        File prq = folder.newFile( "utf16.prq" );
+        FileUtils.writeStringToFile( prq, original, "UTF-16LE" );
+
+        byte[] rewritten = rewrite( prq, Arrays.asList( update( "\u017c", "NEW", 1 ) ) );
+
+        String expected =
+            original.replace( "\u0105\" CheckSum=\"OLD\" FileSize=\"0,0", "\u017c\" CheckSum=\"NEW\" FileSize=\"0,1" );
+        assertArrayEquals( expected.getBytes( "UTF-16LE" ), rewritten );
+    }
+
+    private byte[] rewrite( File prerequisite, List<PrqProcessor.FileEntryUpdate> updates )
+        throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        processor.rewrite( prerequisite, updates, output );
+        return output.toByteArray();
+    }
+
+    private static PrqProcessor.FileEntryUpdate update( String localFile, String md5, long size )
+    {
+        return new PrqProcessor.FileEntryUpdate( localFile, new FileDigest( md5, size ) );
+    }
+
+    private File fixture()
+        throws URISyntaxException
+    {
+        return new File( getClass().getResource( "crlf.prq" ).toURI() );
+    }
+}
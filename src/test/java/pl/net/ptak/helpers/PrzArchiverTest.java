@@ -0,0 +1,122 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Creating archives with {@link PrzArchiver}.
+ * 
+ * @author Tomasz Ptak
+ */
+public class PrzArchiverTest
+{
+
+    /** More entries than a zip without Zip64 extensions can hold. */
+    private static final int ENTRIES = 65546;
+
+    private static final long LAST_MODIFIED = 1400000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesZip64ArchiveWithManyEntries()
+        throws IOException
+    {
+        File source = new File( folder.getRoot(), "source.zip" );
+        ZipOutputStream zip = new ZipOutputStream( new FileOutputStream( source ) );
+        try
+        {
+            zip.putNextEntry( new ZipEntry( "archived.txt" ) );
+            zip.write( "archived".getBytes( "UTF-8" ) );
+            zip.closeEntry();
+        }
+        finally
+        {
+            zip.close();
+        }
+
+        PrzArchiver archiver = new PrzArchiver( 4, folder.newFolder( "tmp" ) );
+        for ( int i = 0; i < ENTRIES; i++ )
+        {
+            archiver.addContent( entry( i ), content( i ).getBytes( "UTF-8" ), LAST_MODIFIED );
+        }
+        archiver.addArchivedFile( "archived.txt", source, "archived.txt" );
+        File archive = new File( folder.getRoot(), "many.prz" );
+        archiver.createArchive( archive );
+
+        FileChannel channel = FileChannel.open( archive.toPath(), StandardOpenOption.READ );
+        try
+        {
+            ZipCentralDirectory directory = new ZipCentralDirectory( channel );
+            // the entries and their folder
+            assertEquals( ENTRIES + 2, directory.getEntries().size() );
+            assertEquals( content( 0 ), read( directory, entry( 0 ) ) );
+            assertEquals( content( ENTRIES - 1 ), read( directory, entry( ENTRIES - 1 ) ) );
+            assertEquals( "archived", read( directory, "archived.txt" ) );
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    private static String read( ZipCentralDirectory directory, String name )
+        throws IOException
+    {
+        ZipDirectoryEntry entry = directory.getEntry( name );
+        assertNotNull( name, entry );
+        InputStream input = directory.getInputStream( entry );
+        try
+        {
+            return IOUtils.toString( input, "UTF-8" );
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    private static String entry( int i )
+    {
+        return String.format( "entries/%05d.txt", i );
+    }
+
+    private static String content( int i )
+    {
+        return "entry " + i;
+    }
+}
@@ -0,0 +1,97 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Finding conflicts between archives extracted by {@link PrzExtractor}.
+ * 
+ * @author Tomasz Ptak
+ */
+public class PrzExtractorTest
+{
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rejectsDifferentFilesWhosePathsDifferOnlyByCase()
+        throws IOException
+    {
+        PrzExtractor extractor = new PrzExtractor( 1 );
+        extractor.addArchive( archive( "first.prz", "Sub/File.txt", "first" ) );
+        extractor.addArchive( archive( "second.prz", "sub\\file.TXT", "second" ) );
+        File output = folder.newFolder( "output" );
+
+        try
+        {
+            extractor.extract( output );
+            fail( "Sub/File.txt and sub\\file.TXT are the same file on Windows" );
+        }
+        catch ( IOException e )
+        {
+            assertTrue( e.getMessage(),
+                e.getMessage().contains( "Sub/File.txt in first.prz and sub\\file.TXT in second.prz" ) );
+        }
+        assertEquals( 0, output.list().length );
+    }
+
+    @Test
+    public void extractsSameFileWhosePathsDifferOnlyByCaseOnce()
+        throws IOException
+    {
+        PrzExtractor extractor = new PrzExtractor( 1 );
+        extractor.addArchive( archive( "first.prz", "Sub/File.txt", "same" ) );
+        extractor.addArchive( archive( "second.prz", "sub/file.txt", "same" ) );
+
+        assertEquals( 1, extractor.extract( folder.newFolder( "output" ) ) );
+    }
+
+    private File archive( String name, String entryName, String content )
+        throws IOException
+    {
+        File archive = new File( folder.getRoot(), name );
+        ZipOutputStream output = new ZipOutputStream( new FileOutputStream( archive ) );
+        try
+        {
+            output.putNextEntry( new ZipEntry( entryName ) );
+            output.write( content.getBytes( "UTF-8" ) );
+            output.closeEntry();
+        }
+        finally
+        {
+            output.close();
+        }
+        return archive;
+    }
+}
@@ -0,0 +1,76 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.codehaus.plexus.components.io.fileselectors.FileSelector;
+import org.codehaus.plexus.components.io.fileselectors.IncludeExcludeFileSelector;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Extracting archives with {@link PrzUnArchiver}.
+ * 
+ * @author Tomasz Ptak
+ */
+public class PrzUnArchiverTest
+{
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void extractsSelectedEntriesOfZip64Archive()
+        throws IOException
+    {
+        File archive = new File( folder.getRoot(), "zip64.prz" );
+        Zip64Fixture.write( archive );
+        int last = Zip64Fixture.SMALL_ENTRIES - 1;
+
+        for ( PrzUnArchiver unArchiver : new PrzUnArchiver[] { new PrzUnArchiver( archive ),
+            new MappedZipUnArchiver( archive ) } )
+        {
+            File output = folder.newFolder( unArchiver.getClass().getSimpleName() );
+            IncludeExcludeFileSelector selector = new IncludeExcludeFileSelector();
+            selector.setIncludes( new String[] { Zip64Fixture.smallEntry( 0 ), Zip64Fixture.smallEntry( last ) } );
+            unArchiver.enableLogging( new ConsoleLogger( Logger.LEVEL_WARN, "test" ) );
+            unArchiver.setDestDirectory( output );
+            unArchiver.setFileSelectors( new FileSelector[] { selector } );
+            unArchiver.extract();
+
+            assertEquals( Zip64Fixture.smallContent( 0 ),
+                          FileUtils.readFileToString( new File( output, Zip64Fixture.smallEntry( 0 ) ), "UTF-8" ) );
+            assertEquals( Zip64Fixture.smallContent( last ),
+                          FileUtils.readFileToString( new File( output, Zip64Fixture.smallEntry( last ) ), "UTF-8" ) );
+            assertFalse( new File( output, Zip64Fixture.BIG_ENTRY ).exists() );
+            assertEquals( 2, new File( output, "small" ).list().length );
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a Zip64 archive which needs every Zip64 record: a stored entry bigger than 4GB followed by more than 65535
+ * small entries, so offsets of the small entries, of the central directory and the entry count don't fit in the
+ * classic records. The data of the big entry is a hole of a sparse file, so the archive takes a few megabytes of
+ * disk. The CRC of the big entry is not set, it is never extracted.
+ * 
+ * @author Tomasz Ptak
+ */
+final class Zip64Fixture
+{
+
+    /** Name of the entry bigger than 4GB. */
+    static final String BIG_ENTRY = "big.bin";
+
+    /** Size of the entry bigger than 4GB. */
+    static final long BIG_SIZE = 0x100100000L;
+
+    /** Number of small entries following the big one. */
+    static final int SMALL_ENTRIES = 0x10000 + 10;
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private static final int LFH_SIGNATURE = 0x04034b50;
+
+    private static final int CFH_SIGNATURE = 0x02014b50;
+
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+
+    private static final short VERSION = 45;
+
+    /** Language encoding flag, names are UTF-8. */
+    private static final short FLAGS = 1 << 11;
+
+    private static final short STORED = 0;
+
+    /** 2020-01-01 00:00 in MS-DOS format. */
+    private static final int DOS_TIME = 0x50210000;
+
+    private static final int ZIP64_MAGIC = 0xFFFFFFFF;
+
+    private static final short ZIP64_EXTRA_ID = 1;
+
+    private static final int LFH_SIZE = 30;
+
+    private static final int CFH_SIZE = 46;
+
+    private static final int ZIP64_EOCD_SIZE = 56;
+
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+
+    private static final int EOCD_SIZE = 22;
+
+    /** Size of the Zip64 extra field with two 8 byte values, its header included. */
+    private static final int BIG_EXTRA_SIZE = 20;
+
+    /** Size of the Zip64 extra field with the local header offset only, its header included. */
+    private static final int OFFSET_EXTRA_SIZE = 12;
+
+    private Zip64Fixture()
+    {
+    }
+
+    /**
+     * Name of a small entry.
+     * 
+     * @param index number of the entry
+     * @return the entry name
+     */
+    static String smallEntry( int index )
+    {
+        return String.format( "small/%05d.txt", index );
+    }
+
+    /**
+     * Content of a small entry.
+     * 
+     * @param index number of the entry
+     * @return the entry content
+     */
+    static String smallContent( int index )
+    {
+        return String.format( "content of entry %d", index );
+    }
+
+    /**
+     * Writes the archive.
+     * 
+     * @param archive the file to create
+     * @throws IOException when the file can't be written
+     */
+    static void write( File archive )
+        throws IOException
+    {
+        byte[] bigName = BIG_ENTRY.getBytes( UTF8 );
+        ByteBuffer head = buffer( LFH_SIZE + bigName.length + BIG_EXTRA_SIZE );
+        localHeader( head, bigName, 0, ZIP64_MAGIC, BIG_EXTRA_SIZE );
+        head.putShort( ZIP64_EXTRA_ID ).putShort( (short) ( BIG_EXTRA_SIZE - 4 ) );
+        head.putLong( BIG_SIZE ).putLong( BIG_SIZE );
+        head.flip();
+        long smallOffset = head.limit() + BIG_SIZE;
+
+        int perEntry = LFH_SIZE + smallEntry( 0 ).length() + smallContent( SMALL_ENTRIES ).length();
+        ByteBuffer data = buffer( perEntry * SMALL_ENTRIES );
+        long[] offsets = new long[SMALL_ENTRIES];
+        int[] crcs = new int[SMALL_ENTRIES];
+        for ( int i = 0; i < SMALL_ENTRIES; i++ )
+        {
+            offsets[i] = smallOffset + data.position();
+            byte[] content = smallContent( i ).getBytes( UTF8 );
+            CRC32 crc = new CRC32();
+            crc.update( content );
+            crcs[i] = (int) crc.getValue();
+            localHeader( data, smallEntry( i ).getBytes( UTF8 ), crcs[i], content.length, 0 );
+            data.put( content );
+        }
+        data.flip();
+        long directoryOffset = smallOffset + data.limit();
+
+        ByteBuffer directory = buffer( ( CFH_SIZE + perEntry ) * ( SMALL_ENTRIES + 1 ) );
+        centralHeader( directory, bigName, 0, ZIP64_MAGIC, BIG_EXTRA_SIZE, 0 );
+        directory.putShort( ZIP64_EXTRA_ID ).putShort( (short) ( BIG_EXTRA_SIZE - 4 ) );
+        directory.putLong( BIG_SIZE ).putLong( BIG_SIZE );
+        for ( int i = 0; i < SMALL_ENTRIES; i++ )
+        {
+            int size = smallContent( i ).getBytes( UTF8 ).length;
+            centralHeader( directory, smallEntry( i ).getBytes( UTF8 ), crcs[i], size, OFFSET_EXTRA_SIZE,
+                           ZIP64_MAGIC );
+            directory.putShort( ZIP64_EXTRA_ID ).putShort( (short) ( OFFSET_EXTRA_SIZE - 4 ) ).putLong( offsets[i] );
+        }
+        long directorySize = directory.position();
+        long entries = SMALL_ENTRIES + 1;
+        long zip64EndOffset = directoryOffset + directorySize;
+        directory.putInt( ZIP64_EOCD_SIGNATURE ).putLong( ZIP64_EOCD_SIZE - 12 );
+        directory.putShort( VERSION ).putShort( VERSION ).putInt( 0 ).putInt( 0 );
+        directory.putLong( entries ).putLong( entries ).putLong( directorySize ).putLong( directoryOffset );
+        directory.putInt( ZIP64_LOCATOR_SIGNATURE ).putInt( 0 ).putLong( zip64EndOffset ).putInt( 1 );
+        directory.putInt( EOCD_SIGNATURE ).putShort( (short) 0 ).putShort( (short) 0 );
+        directory.putShort( (short) 0xFFFF ).putShort( (short) 0xFFFF );
+        directory.putInt( ZIP64_MAGIC ).putInt( ZIP64_MAGIC ).putShort( (short) 0 );
+        directory.flip();
+
+        SeekableByteChannel channel =
+            Files.newByteChannel( archive.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                  StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.SPARSE );
+        try
+        {
+            writeFully( channel, head );
+            channel.position( smallOffset );
+            writeFully( channel, data );
+            writeFully( channel, directory );
+        }
+        finally
+        {
+            channel.close();
+        }
+        if ( archive.length() != zip64EndOffset + ZIP64_EOCD_SIZE + ZIP64_LOCATOR_SIZE + EOCD_SIZE )
+        {
+            throw new IOException( "Fixture has an unexpected size" );
+        }
+    }
+
+    private static ByteBuffer buffer( int capacity )
+    {
+        return ByteBuffer.allocate( capacity ).order( ByteOrder.LITTLE_ENDIAN );
+    }
+
+    private static void localHeader( ByteBuffer buffer, byte[] name, int crc, int size, int extraLength )
+    {
+        buffer.putInt( LFH_SIGNATURE ).putShort( VERSION ).putShort( FLAGS ).putShort( STORED ).putInt( DOS_TIME );
+        buffer.putInt( crc ).putInt( size ).putInt( size );
+        buffer.putShort( (short) name.length ).putShort( (short) extraLength ).put( name );
+    }
+
+    private static void centralHeader( ByteBuffer buffer, byte[] name, int crc, int size, int extraLength,
+                                       int offset )
+    {
+        buffer.putInt( CFH_SIGNATURE ).putShort( VERSION ).putShort( VERSION ).putShort( FLAGS ).putShort( STORED );
+        buffer.putInt( DOS_TIME ).putInt( crc ).putInt( size ).putInt( size );
+        buffer.putShort( (short) name.length ).putShort( (short) extraLength ).putShort( (short) 0 );
+        buffer.putShort( (short) 0 ).putShort( (short) 0 ).putInt( 0 ).putInt( offset ).put( name );
+    }
+
+    private static void writeFully( SeekableByteChannel channel, ByteBuffer buffer )
+        throws IOException
+    {
+        while ( buffer.hasRemaining() )
+        {
+            channel.write( buffer );
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package pl.net.ptak.helpers;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reading archives with {@link ZipCentralDirectory}.
+ * 
+ * @author Tomasz Ptak
+ */
+public class ZipCentralDirectoryTest
+{
+
+    private static final String POLISH_NAME = "zażółć.txt";
+
+    private static final String CP437_NAME = "über été.txt";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsStoredAndDeflatedEntries()
+        throws IOException
+    {
+        File archive = folder.newFile( "entries.zip" );
+        ZipArchiveOutputStream output = new ZipArchiveOutputStream( archive );
+        try
+        {
+            addEntry( output, "deflated.txt", ZipArchiveEntry.DEFLATED, "deflated content" );
+            addEntry( output, "dir/stored.txt", ZipArchiveEntry.STORED, "stored content" );
+        }
+        finally
+        {
+            output.close();
+        }
+
+        for ( boolean mapped : new boolean[] { false, true } )
+        {
+            RandomAccessFile file = new RandomAccessFile( archive, "r" );
+            try
+            {
+                ZipCentralDirectory directory = new ZipCentralDirectory( file.getChannel(), mapped );
+                assertEquals( 2, directory.getEntries().size() );
+                assertEquals( "deflated content", read( directory, "deflated.txt" ) );
+                assertEquals( "stored content", read( directory, "dir/stored.txt" ) );
+            }
+            finally
+            {
+                file.close();
+            }
+        }
+    }
+
+    @Test
+    public void readsZip64Archive()
+        throws IOException
+    {
+        File archive = new File( folder.getRoot(), "zip64.zip" );
+        Zip64Fixture.write( archive );
+
+        for ( boolean mapped : new boolean[] { false, true } )
+        {
+            RandomAccessFile file = new RandomAccessFile( archive, "r" );
+            try
+            {
+                ZipCentralDirectory directory = new ZipCentralDirectory( file.getChannel(), mapped );
+                assertEquals( Zip64Fixture.SMALL_ENTRIES + 1, directory.getEntries().size() );
+                ZipDirectoryEntry big = directory.getEntry( Zip64Fixture.BIG_ENTRY );
+                assertNotNull( big );
+                assertEquals( Zip64Fixture.BIG_SIZE, big.getSize() );
+                assertEquals( Zip64Fixture.BIG_SIZE, big.getCompressedSize() );
+                int last = Zip64Fixture.SMALL_ENTRIES - 1;
+                assertTrue( directory.getEntry( Zip64Fixture.smallEntry( last ) ).getLocalHeaderOffset()
+                    > Zip64Fixture.BIG_SIZE );
+                assertEquals( Zip64Fixture.smallContent( 0 ), read( directory, Zip64Fixture.smallEntry( 0 ) ) );
+                assertEquals( Zip64Fixture.smallContent( last ), read( directory, Zip64Fixture.smallEntry( last ) ) );
+            }
+            finally
+            {
+                file.close();
+            }
+        }
+    }
+
+    @Test
+    public void decodesFlaggedNamesAsUtf8()
+        throws IOException
+    {
+        File archive = folder.newFile( "utf8.zip" );
+        ZipArchiveOutputStream output = new ZipArchiveOutputStream( archive );
+        output.setEncoding( "UTF-8" );
+        output.setUseLanguageEncodingFlag( true );
+        writeSingleEntry( output, POLISH_NAME );
+
+        assertEquals( POLISH_NAME, readSingleName( archive ) );
+    }
+
+    @Test
+    public void decodesUnflaggedNamesAsCp437()
+        throws IOException
+    {
+        File archive = folder.newFile( "cp437.zip" );
+        ZipArchiveOutputStream output = new ZipArchiveOutputStream( archive );
+        output.setEncoding( "IBM437" );
+        output.setUseLanguageEncodingFlag( false );
+        output.setCreateUnicodeExtraFields( ZipArchiveOutputStream.UnicodeExtraFieldPolicy.NEVER );
+        writeSingleEntry( output, CP437_NAME );
+
+        assertEquals( CP437_NAME, readSingleName( archive ) );
+    }
+
+    @Test
+    public void prefersUnicodePathExtraField()
+        throws IOException
+    {
+        File archive = folder.newFile( "unicode-path.zip" );
+        ZipArchiveOutputStream output = new ZipArchiveOutputStream( archive );
+        output.setEncoding( "IBM437" );
+        output.setUseLanguageEncodingFlag( false );
+        output.setCreateUnicodeExtraFields( ZipArchiveOutputStream.UnicodeExtraFieldPolicy.ALWAYS );
+        writeSingleEntry( output, POLISH_NAME );
+
+        assertEquals( POLISH_NAME, readSingleName( archive ) );
+    }
+
+    private static void addEntry( ZipArchiveOutputStream output, String name, int method, String content )
+        throws IOException
+    {
+        ZipArchiveEntry entry = new ZipArchiveEntry( name );
+        entry.setMethod( method );
+        output.putArchiveEntry( entry );
+        output.write( content.getBytes( "UTF-8" ) );
+        output.closeArchiveEntry();
+    }
+
+    private static void writeSingleEntry( ZipArchiveOutputStream output, String name )
+        throws IOException
+    {
+        try
+        {
+            addEntry( output, name, ZipArchiveEntry.DEFLATED, "content" );
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+
+    private static String readSingleName( File archive )
+        throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile( archive, "r" );
+        try
+        {
+            ZipCentralDirectory directory = new ZipCentralDirectory( file.getChannel() );
+            assertEquals( 1, directory.getEntries().size() );
+            return directory.getEntries().get( 0 ).getName();
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    private static String read( ZipCentralDirectory directory, String name )
+        throws IOException
+    {
+        ZipDirectoryEntry entry = directory.getEntry( name );
+        assertNotNull( name, entry );
+        InputStream input = directory.getInputStream( entry );
+        try
+        {
+            return IOUtils.toString( input, "UTF-8" );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( input );
+        }
+    }
+}